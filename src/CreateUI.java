@@ -31,6 +31,7 @@ import javax.swing.border.EmptyBorder;
 import javax.swing.text.DefaultFormatterFactory;
 import javax.swing.text.NumberFormatter;
 
+import game.Game;
 import server.Server;
 import server.ServerUI;
 import utils.Colors;
@@ -39,6 +40,8 @@ import utils.Spinner;
 
 // UI for creating a new game
 public class CreateUI extends JFrame{
+	private static final int[] BOARD_SIZES = { 25, 50, 100, 500, 2000 };
+	
 	private JFrame parent;
 	private CreatePanel panel;
 	
@@ -46,7 +49,7 @@ public class CreateUI extends JFrame{
 		this.parent = parent;
 		setContentPane(panel = new CreatePanel());
 		pack();
-		setMinimumSize(new Dimension(320, 165));
+		setMinimumSize(new Dimension(320, 225));
 		setTitle("Create Game");
 		setLocationRelativeTo(null);
 		panel.buttonCreate.requestFocusInWindow();	
@@ -71,6 +74,8 @@ public class CreateUI extends JFrame{
 			.addKeyListener(keyListener);
 		((JSpinner.NumberEditor)panel.spinnerPort.getEditor()).getTextField()
 			.addKeyListener(keyListener);	
+		((JSpinner.NumberEditor)panel.spinnerPlayers.getEditor()).getTextField()
+			.addKeyListener(keyListener);
 		
 		addWindowListener(new WindowAdapter() {
 			@Override
@@ -93,13 +98,21 @@ public class CreateUI extends JFrame{
 		int lives = (int)panel.spinnerLives.getValue();
 		int port = (int)panel.spinnerPort.getValue();
 		int speed = panel.sliderSnakeSpeed.getValue();
-		new Server(parent, port, level, lives, speed);		
+		int players = (int)panel.spinnerPlayers.getValue();
+		int size = BOARD_SIZES[panel.comboBoxSize.getSelectedIndex()];
+		// a random map is generated when no valid seed is given
+		Long seed = null;
+		try {
+			seed = Long.parseLong(panel.textFieldSeed.getText().trim());
+		} catch (NumberFormatException e) {}
+		new Server(parent, port, level, lives, speed, players, size, seed);		
 	}
 	
 	class CreatePanel extends JPanel {
-		JComboBox<String> comboBoxLevel;
-		JSpinner spinnerLives, spinnerPort;
+		JComboBox<String> comboBoxLevel, comboBoxSize;
+		JSpinner spinnerLives, spinnerPort, spinnerPlayers;
 		JSlider sliderSnakeSpeed;
+		JTextField textFieldSeed;
 		JButton buttonCreate, buttonCancel;
 		
 		public CreatePanel() {
@@ -107,8 +120,10 @@ public class CreateUI extends JFrame{
 			setBorder(new EmptyBorder(10, 20, 10, 20));
 			add(renderLevelLives(), Layout.getConstraints(0, 0, 1, 1, 1, 0));
 			add(renderSnakeSpeed(), Layout.getConstraints(0, 1, 1, 1, 1, 0));
-			add(renderServerPort(), Layout.getConstraints(0, 2, 1, 1, 0, 0));
-			add(renderButtons(), Layout.getConstraints(0, 3, 1, 1, 0, 0));
+			add(renderPlayers(), Layout.getConstraints(0, 2, 1, 1, 0, 0));
+			add(renderSeed(), Layout.getConstraints(0, 3, 1, 1, 1, 0));
+			add(renderServerPort(), Layout.getConstraints(0, 4, 1, 1, 0, 0));
+			add(renderButtons(), Layout.getConstraints(0, 5, 1, 1, 0, 0));
 		}
 		
 		// for setting level and number of lives
@@ -138,6 +153,31 @@ public class CreateUI extends JFrame{
 			return container;
 		}
 		
+		// for setting the number of players and the board size
+		private JPanel renderPlayers() {
+			JPanel container = new JPanel();
+			container.setLayout(new GridBagLayout());
+			container.add(new JLabel("Players (2~" + Game.MAX_PLAYERS + "): "), Layout.getConstraints(0, 0, 1, 1, 0, 0));
+			spinnerPlayers = Spinner.getSpinner(2, 2, Game.MAX_PLAYERS, false);
+			container.add(spinnerPlayers, Layout.getConstraints(1, 0, 1, 1, 0, 0));
+			container.add(new JLabel("   Board: "), Layout.getConstraints(2, 0, 1, 1, 0, 0));
+			comboBoxSize = new JComboBox<String>();
+			for (int size : BOARD_SIZES)
+				comboBoxSize.addItem(size + " x " + size);
+			container.add(comboBoxSize, Layout.getConstraints(3, 0, 1, 1, 1, 1));
+			return container;
+		}
+		
+		// for setting the map seed (to play a map again)
+		private JPanel renderSeed() {
+			JPanel container = new JPanel();
+			container.setLayout(new GridBagLayout());
+			container.add(new JLabel("Map seed (optional): "), Layout.getConstraints(0, 0, 1, 1, 0, 0));
+			textFieldSeed = new JTextField();
+			container.add(textFieldSeed, Layout.getConstraints(1, 0, 1, 1, 1, 1));
+			return container;
+		}
+		
 		// for setting server port
 		private JPanel renderServerPort() {
 			JPanel container = new JPanel();
@@ -23,6 +23,7 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 
 import game.Game;
+import game.MapLayout;
 import game.Ranklist;
 import server.InformationServer;
 import utils.Time;
@@ -33,6 +34,10 @@ public class Client {
 	private SocketHandler socketHandler;
 	private GameUI gameUI = null;
 	private Game game;
+	// walls and holes, received once from the server
+	private MapLayout map;
+	// the map as received, saved at the start of the archive
+	private byte[] packedMap;
 	private Music music;
 	private boolean isTurning = false;
 	private boolean started = false;
@@ -40,7 +45,7 @@ public class Client {
 	private boolean connected = false;
 	private WaitingUI waitingUI;
 	private JFrame home;
-	private String[] username = new String[2];
+	private String[] username = new String[1];
 	private long startTime;
 	private DataOutputStream saver;
 	
@@ -119,11 +124,14 @@ public class Client {
 			gameUI.sync(game);
 	}
 	
-	// save
-	void save(byte[] packed) {
+	// save a map, state or delta as it has been received (tagged with its type, and with the 
+	// player it is numbered from), for the playback to apply it in turn
+	void save(InformationServer info, int player, byte[] packed) {
 		if (!started) return;
 		try {
 			saver.writeLong(System.currentTimeMillis() - startTime);
+			saver.writeInt(info.ordinal());
+			saver.writeInt(player);
 			saver.writeInt(packed.length);
 			saver.write(packed);
 		} catch (Exception e) {}
@@ -286,15 +294,17 @@ public class Client {
 					else if (type == InformationServer.ENTER.ordinal()) {
 						// enter the game
 						waitingUI.setVisible(false);
-						int lengthUsernameMine = input.readInt();
-						byte[] usernameMineBytes = new byte[lengthUsernameMine];
-						input.read(usernameMineBytes, 0, lengthUsernameMine);
-						int lengthUsernameOpponent = input.readInt();
-						byte[] usernameOpponentBytes = new byte[lengthUsernameOpponent];
-						input.read(usernameOpponentBytes, 0, lengthUsernameOpponent);
-						username[0] = new String(usernameMineBytes);
-						username[1] = new String(usernameOpponentBytes);
-						gameUI.setUsername(username[0], username[1]);
+						int numPlayers = input.readInt();
+						if (numPlayers < 1 || numPlayers > Game.MAX_PLAYERS)
+							throw new IOException("Invalid number of players: " + numPlayers);
+						username = new String[numPlayers];
+						for (int i = 0; i < numPlayers; ++i) {
+							int lengthUsername = input.readInt();
+							byte[] bytesUsername = new byte[lengthUsername];
+							input.readFully(bytesUsername, 0, lengthUsername);
+							username[i] = new String(bytesUsername);
+						}
+						gameUI.setUsername(username);
 						gameUI.setVisible(true);
 					}
 					else if (type == InformationServer.COUNTDOWN.ordinal()) {
@@ -310,27 +320,56 @@ public class Client {
 						started = true;
 						startTime = System.currentTimeMillis();
 						
-						// save usernames
-						for (int i = 0; i < 2; ++i) {
+						// save usernames (all of them, after the number of players)
+						saver.writeInt(Playback.ARCHIVE_MAGIC);
+						saver.writeInt(username.length);
+						for (int i = 0; i < username.length; ++i) {
 							byte[] bytesUsername = username[i].getBytes();
 							saver.writeInt(bytesUsername.length);
 							saver.write(bytesUsername);
 						}
 						
-						byte[] packedWithLength = game.pack(0);
-						byte[] packed = new byte[packedWithLength.length - 4];
-						for (int i = 4; i < packedWithLength.length; ++i)
-							packed[i - 4] = packedWithLength[i];
-						save(packed);
+						// the map and the state received before the start come first
+						save(InformationServer.MAP, 0, packedMap);
+						if (game != null)
+							save(InformationServer.REFRESH, 0, game.packState(0));
 					}
 					else if (type == InformationServer.REFRESH.ordinal()) {
-						// refresh the game state
+						// refresh the game state (numbered from the server's, with my player first)
+						int player = input.readInt();
+						int length = input.readInt();
+						byte[] packed = new byte[length];
+						input.readFully(packed, 0, length);
+						try {
+							// the walls and holes are kept from the map received first
+							if (game == null)
+								game = new Game(map, packed, player);
+							else
+								game.loadState(packed, player);
+							refresh(game);
+							save(InformationServer.REFRESH, player, packed);
+						} catch (Exception e) {}
+					}
+					else if (type == InformationServer.MAP.ordinal()) {
+						// receive the walls and holes
+						int length = input.readInt();
+						byte[] packed = new byte[length];
+						input.readFully(packed, 0, length);
+						map = new MapLayout(packed);
+						packedMap = packed;
+					}
+					else if (type == InformationServer.DELTA.ordinal()) {
+						// apply the changes of the tick to the game state
+						int player = input.readInt();
 						int length = input.readInt();
 						byte[] packed = new byte[length];
-						input.read(packed, 0, length);
+						input.readFully(packed, 0, length);
+						// a delta only applies to a state received before it
+						if (game == null) continue;
 						try {
-							refresh(new Game(packed));
-							save(packed);
+							game.applyEvents(packed, player);
+							refresh(game);
+							save(InformationServer.DELTA, player, packed);
 						} catch (Exception e) {}
 					}
 					else if (type == InformationServer.DIE.ordinal()) {
@@ -338,20 +377,20 @@ public class Client {
 						gameUI.showMessage(
 							"System", Time.getTime(), 
 							"Your current snake has died. A new one will go out of some hole in " +
-							Integer.toString(Game.reviveSnakeDelay / 1000) + " seconds."
+							Integer.toString(Game.REVIVE_SNAKE_DELAY / 1000) + " seconds."
 						);
 					}
 					else if (type == InformationServer.MESSAGE.ordinal()) {
 						// receive a text message
 						int lengthUsername = input.readInt();
 						usernameBytes = new byte[lengthUsername];
-						input.read(usernameBytes, 0, lengthUsername);
+						input.readFully(usernameBytes, 0, lengthUsername);
 						int lengthTime = input.readInt();
 						byte[] timeBytes = new byte[lengthTime];
-						input.read(timeBytes, 0, lengthTime);
+						input.readFully(timeBytes, 0, lengthTime);
 						int lengthMessage = input.readInt();	
 						byte[] messageBytes = new byte[lengthMessage];
-						input.read(messageBytes, 0, lengthMessage);
+						input.readFully(messageBytes, 0, lengthMessage);
 						gameUI.showMessage(
 							new String(usernameBytes), 
 							new String(timeBytes), 
@@ -401,7 +440,7 @@ public class Client {
 						// receive the ranklist
 						int length = input.readInt();
 						byte[] packed = new byte[length];
-						input.read(packed, 0, length);
+						input.readFully(packed, 0, length);
 						gameUI.setRanklist(new Ranklist(packed));
 					}
 				}
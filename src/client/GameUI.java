@@ -168,11 +168,27 @@ public class GameUI extends JFrame {
 		}		
 	}
 	
+	// show the usernames of all the players, mine first (the opponents share the second status)
+	public void setUsername(String[] usernames) {
+		StringBuilder opponents = new StringBuilder();
+		for (int i = 1; i < usernames.length; ++i) {
+			if (i > 1) opponents.append(", ");
+			opponents.append(usernames[i]);
+		}
+		setUsername(usernames[0], opponents.toString());
+	}
+	
 	// update the window with the new game state
 	public void sync(Game game) {
 		this.game = game;
-		for (int i = 0; i < 2; ++i)
-			gameSidebar.setStatus(i, game.numSnakes[i], game.score[i]);
+		gameSidebar.setStatus(0, game.numSnakes[0], game.score[0]);
+		// with several opponents, show their total lives and their best score
+		int livesOpponents = 0, scoreOpponents = 0;
+		for (int i = 1; i < game.getNumPlayers(); ++i) {
+			livesOpponents += Math.max(game.numSnakes[i] + 1, 0);
+			scoreOpponents = Math.max(scoreOpponents, game.score[i]);
+		}
+		gameSidebar.setStatus(1, livesOpponents - 1, scoreOpponents);
 		revalidate();
 		repaint();
 	}
@@ -256,7 +272,11 @@ public class GameUI extends JFrame {
 	
 	// game board
 	class GameBoard extends JPanel {
+		// larger boards are shown through a window of this many cells that follows my snake
+		public static final int MAX_VIEW_SIZE = 50;
+		
 		private int width, height, widthPerCell, heightPerCell;
+		private int viewSize, viewX = 0, viewY = 0;
 		private Image iconFood, iconWallIsolated, iconHole;
 		private Image[] iconWallCorner = new Image[4];
 		private Image[] iconWallHead = new Image[4];
@@ -266,7 +286,8 @@ public class GameUI extends JFrame {
 		public GameBoard() {
 			setBackground(Colors.BORDER);
 			setPreferredSize(new Dimension(800, 800));
-			setMinimumSize(new Dimension(2 * size, 2 * size));
+			viewSize = Math.min(size, MAX_VIEW_SIZE);
+			setMinimumSize(new Dimension(2 * viewSize, 2 * viewSize));
 			iconFood = new ImageIcon(
 				GameUI.class.getResource("/icons/food.png")).getImage();
 			iconHole = new ImageIcon(
@@ -312,22 +333,42 @@ public class GameUI extends JFrame {
 		public void paint(Graphics g) {
 			width = getWidth();
 			height = getHeight();
-			widthPerCell = width / size;
-			heightPerCell = height / size;
+			widthPerCell = width / viewSize;
+			heightPerCell = height / viewSize;
+			if (game != null)
+				updateView();
+			g.translate(-viewX * widthPerCell, -viewY * heightPerCell);
 			renderBackground(g);
 			if (game != null) {
-				renderWalls(g);
-				renderHoles(g);
-				renderFoods(g);
-				renderSnakes(g);	
+				// the game is updated in place by the deltas from the server
+				synchronized (game) {
+					renderWalls(g);
+					renderHoles(g);
+					renderFoods(g);
+					renderSnakes(g);	
+				}
 			}
+			g.translate(viewX * widthPerCell, viewY * heightPerCell);
 			renderMessage(g);
 		}
 		
+		// center the view on the head of my snake (kept still while the snake is in a hole)
+		private void updateView() {
+			Snake snake = game.snakes[0];
+			if (viewSize == size || snake == null || snake.first > 0) return;
+			viewX = Math.max(0, Math.min(size - viewSize, snake.getX(0) - viewSize / 2));
+			viewY = Math.max(0, Math.min(size - viewSize, snake.getY(0) - viewSize / 2));
+		}
+		
+		// whether some cell is in the view
+		private boolean isInView(int x, int y) {
+			return x >= viewX && y >= viewY && x < viewX + viewSize && y < viewY + viewSize;
+		}
+		
 		// whether some cell is a wall
 		private boolean isWall(int x, int y) {
-			if (x >= 0 && y >= 0 && x < size && y < size) 
-				return game.grid[x][y] == Game.WALL;
+			if (game.grid.contains(x, y)) 
+				return game.grid.get(x, y) == Game.WALL;
 			else
 				return false;
 		}		
@@ -358,8 +399,8 @@ public class GameUI extends JFrame {
 		
 		// render game board background
 		private void renderBackground(Graphics g) {
-			for (int i = 0; i < size; ++i) 
-				for (int j = 0; j < size; ++j) {
+			for (int i = viewX; i < viewX + viewSize; ++i) 
+				for (int j = viewY; j < viewY + viewSize; ++j) {
 					g.setColor((i + j) % 2 == 0 ? Colors.CELL_DARK : Colors.CELL_LIGHT);
 					g.fillRect(widthPerCell * i, heightPerCell * j, widthPerCell, heightPerCell);
 				}
@@ -367,6 +408,7 @@ public class GameUI extends JFrame {
 		
 		// render a wall cell
 		private void renderWallCell(Graphics g, int x, int y) {
+			if (!isInView(x, y)) return;
 			Image icon = null;
 			if (isWall(x - 1, y) && isWall(x + 1, y))
 				icon = iconWallBody[0];
@@ -517,8 +559,8 @@ public class GameUI extends JFrame {
 		
 		// render the head of the snake
 		private void renderSnakeHead(Graphics g, Snake snake, Color color, Color colorDark) {
-			int x = snake.head().x;
-			int y = snake.head().y;
+			int x = snake.getX(snake.first);
+			int y = snake.getY(snake.first);
 			int eyeX1, eyeY1, eyeX2, eyeY2;
 			eyeX1 = eyeY1 = eyeX2 = eyeY2 = 0;
 			if (snake.direction == Direction.NORTH || snake.direction == Direction.SOUTH) {
@@ -580,8 +622,7 @@ public class GameUI extends JFrame {
 		}
 		
 		// render the snake cell when it is at a hole
-		private void renderSnakeCellAtHole(Graphics g, Point p, Color color, int direction) {
-			int x = p.x, y = p.y;
+		private void renderSnakeCellAtHole(Graphics g, int x, int y, Color color, int direction) {
 			if (direction == Direction.NORTH)
 				g.fillRect(
 					widthPerCell * x, heightPerCell * (y + 1) - heightPerCell / 3, widthPerCell, heightPerCell / 3);
@@ -603,25 +644,27 @@ public class GameUI extends JFrame {
 			
 			// render the snake cell at the hole
 			if (snake.first < snake.last && snake.first > 0) 
-				renderSnakeCellAtHole(g, snake.body.get(snake.first - 1), color, snake.direction);
+				renderSnakeCellAtHole(
+					g, snake.getX(snake.first - 1), snake.getY(snake.first - 1), color, snake.direction);
 			else if (snake.first < snake.last && snake.last < snake.length()) {
 				int direction = Direction.opposite(snake.direction);
 				if (snake.last > 0) {
-					Point pre = snake.body.get(snake.last - 1);
-					Point last = snake.body.get(snake.last);
+					int pre = snake.get(snake.last - 1);
+					int lastX = snake.getX(snake.last), lastY = snake.getY(snake.last);
 					for (int i = 0; i < 4; ++i) 
-						if ((new Point(last.x + Direction.dx[i], last.y + Direction.dy[i])).equals(pre))
+						if (Point.encode(lastX + Direction.dx[i], lastY + Direction.dy[i]) == pre)
 							direction = Direction.opposite(i);
 				}
-				renderSnakeCellAtHole(g, snake.body.get(snake.last), color, direction);
+				renderSnakeCellAtHole(
+					g, snake.getX(snake.last), snake.getY(snake.last), color, direction);
 			}
 			for (int i = snake.first; i < snake.last; ++i) {
-				int x = snake.body.get(i).x;
-				int y = snake.body.get(i).y;
+				int x = snake.getX(i);
+				int y = snake.getY(i);
 				for (int j = i - 1; j <= i + 1; j += 2) 
-					if (j >= 0 && j < snake.body.size())
+					if (j >= 0 && j < snake.length())
 						for (int d = 0; d < 4; ++d) 
-							if (new Point(x + Direction.dx[d], y + Direction.dy[d]).equals(snake.body.get(j)))
+							if (x + Direction.dx[d] == snake.getX(j) && y + Direction.dy[d] == snake.getY(j))
 								renderSnakeCell(g, x, y, d);	
 			}
 			
@@ -634,7 +677,8 @@ public class GameUI extends JFrame {
 			Graphics2D g = (Graphics2D) _g;
 			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 			renderSnake(g, game.snakes[0], Colors.SNAKE_MINE, Colors.SNAKE_DARK_MINE);
-			renderSnake(g, game.snakes[1], Colors.SNAKE_OPPONENT, Colors.SNAKE_DARK_OPPONENT);
+			for (int i = 1; i < game.getNumPlayers(); ++i)
+				renderSnake(g, game.snakes[i], Colors.SNAKE_OPPONENT, Colors.SNAKE_DARK_OPPONENT);
 		}
 	}
 
@@ -23,15 +23,27 @@ import java.awt.*;
 import javax.swing.*;
 
 import game.Game;
+import game.GameSnapshot;
+import game.MapLayout;
+import server.InformationServer;
 
 // playback
 public class Playback {
+	// first int of an archive listing the usernames of any number of players, followed by the map, 
+	// states and deltas as the client has received them (an archive of two players only starts 
+	// with the length of the first username instead, and is followed by whole packed games)
+	public static final int ARCHIVE_MAGIC = 0x534E4B41;
+	
 	private final long minDelay = 1000;
 	private boolean paused = false;
 	private ArrayList<Long> times = new ArrayList<Long>();
 	private ArrayList<Game> games = new ArrayList<Game>();
+	// the game the received states and deltas are applied to, and its state at each time 
+	// (instead of the games, for an archive of them)
+	private Game game;
+	private ArrayList<GameSnapshot> snapshots = new ArrayList<GameSnapshot>();
 	private DataInputStream input;
-	private String[] username = new String[2];
+	private String[] username;
 	private GameUI gameUI;
 	private int current = 0;
 	private NextGameTimerTask nextGameTimerTask;
@@ -42,27 +54,52 @@ public class Playback {
 		try {
 			input = new DataInputStream(new FileInputStream(file));
 			
-			for (int i = 0; i < 2; ++i) {
-				int length = input.readInt();
+			int first = input.readInt();
+			username = new String[first == ARCHIVE_MAGIC ? input.readInt() : 2];
+			for (int i = 0; i < username.length; ++i) {
+				int length = i == 0 && first != ARCHIVE_MAGIC ? first : input.readInt();
 				byte[] bytes = new byte[length];
 				input.read(bytes);
 				username[i] = new String(bytes);
 			}
 			
+			MapLayout map = null;
 			while (true) {
 				try {
 					long time = input.readLong();
+					if (first != ARCHIVE_MAGIC) {
+						int length = input.readInt();
+						byte[] bytes = new byte[length];
+						input.readFully(bytes);
+						games.add(new Game(bytes));
+						times.add(time);
+						continue;
+					}
+					int type = input.readInt();
+					int player = input.readInt();
 					int length = input.readInt();
 					byte[] bytes = new byte[length];
-					input.read(bytes);
-					games.add(new Game(bytes));
+					input.readFully(bytes);
+					if (type == InformationServer.MAP.ordinal())
+						map = new MapLayout(bytes);
+					else if (type == InformationServer.REFRESH.ordinal()) {
+						if (game == null)
+							game = new Game(map, bytes, player);
+						else
+							game.loadState(bytes, player);
+					}
+					else if (type == InformationServer.DELTA.ordinal() && game != null) 
+						game.applyEvents(bytes, player);
+					else
+						continue;
+					snapshots.add(game.snapshot());
 					times.add(time);
 				} catch (EOFException e) {
 					break;
 				}
 			}
 			
-			if (games.isEmpty())
+			if (times.isEmpty())
 				throw new Exception("Empty archive file!");
 			
 		} catch (Exception e) {
@@ -74,19 +111,27 @@ public class Playback {
 	        parent.setVisible(true);
 		}
 		
-		gameUI = new GameUI(parent, games.get(0).getSize(), null, true);
-		gameUI.setUsername(username[0], username[1]);
-		gameUI.resetProgress(games.size());
-		gameUI.sync(games.get(0));
+		gameUI = new GameUI(parent, frame(0).getSize(), null, true);
+		gameUI.setUsername(username);
+		gameUI.resetProgress(times.size());
+		gameUI.sync(frame(0));
 		gameUI.setListener(new GameUIHandler());
 		gameUI.setVisible(true);
 		
 		scheduleNext();
 	}
 	
+	// the game at the i-th time
+	private Game frame(int i) {
+		if (game == null)
+			return games.get(i);
+		game.restore(snapshots.get(i));
+		return game;
+	}
+	
 	// schedule the next game state timer task
 	private void scheduleNext() {
-		if (current + 1 < games.size()) {
+		if (current + 1 < times.size()) {
 			long delay = (long)((times.get(current + 1) - times.get(current)) * gameUI.getDelay());
 			timer.schedule(
 				nextGameTimerTask = new NextGameTimerTask(), 
@@ -108,9 +153,9 @@ public class Playback {
 	class NextGameTimerTask extends TimerTask {
 		public void run() {
 			++current;
-			if (current < games.size()) {
+			if (current < times.size()) {
 				gameUI.setProgress(current);
-				gameUI.sync(games.get(current));
+				gameUI.sync(frame(current));
 			}
 			scheduleNext();
 		}
@@ -129,9 +174,9 @@ public class Playback {
 		}
 		
 		public void requestResume() {
-			if (current + 1 == games.size()) {
+			if (current + 1 == times.size()) {
 				gameUI.setProgress(current = 0);
-				gameUI.sync(games.get(0));
+				gameUI.sync(frame(0));
 			}
 			scheduleNext();
 			gameUI.resume();
@@ -143,7 +188,7 @@ public class Playback {
 			synchronized (this) {
 				nextGameTimerTask.cancel();
 				current = value;
-				gameUI.sync(games.get(current));
+				gameUI.sync(frame(current));
 				if (!paused) scheduleNext();
 			}
 		}
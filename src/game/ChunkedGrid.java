@@ -0,0 +1,195 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+import java.util.Random;
+
+// grid for large and mostly empty boards, stored in square tiles that are allocated on the 
+// first non-empty cell and dropped again when their last non-empty cell is cleared, so that 
+// the memory used is proportional to the occupied area
+public class ChunkedGrid extends Grid {
+	// random tries to find an empty cell (which almost always succeed at once on a sparse grid) 
+	// before the empty cells are ranked
+	private static final int MAX_SAMPLES = 64;
+	public static final int TILE_BITS = 6;
+	public static final int TILE_SIZE = 1 << TILE_BITS;
+	private static final int TILE_MASK = TILE_SIZE - 1;
+	// dropped tiles kept for reuse, so that snakes moving across tiles do not allocate
+	private static final int MAX_SPARE_TILES = 16;
+	
+	private int tilesPerRow;
+	private byte[][] tiles;
+	// number of non-empty cells in each tile, and of empty cells ranked by tile
+	private int[] occupied;
+	private RankTree emptyTiles;
+	private int numTiles = 0;
+	private int numOccupied = 0;
+	// the dropped tiles are all empty, so they are reused as they are
+	private byte[][] spareTiles = new byte[MAX_SPARE_TILES][];
+	private int numSpareTiles = 0;
+
+	public ChunkedGrid(int size) {
+		super(size);
+		tilesPerRow = (size + TILE_SIZE - 1) >> TILE_BITS;
+		tiles = new byte[tilesPerRow * tilesPerRow][];
+		occupied = new int[tilesPerRow * tilesPerRow];
+		emptyTiles = new RankTree(tilesPerRow * tilesPerRow);
+		clear();
+	}
+	
+	private int tile(int x, int y) {
+		return (y >> TILE_BITS) * tilesPerRow + (x >> TILE_BITS);
+	}
+	
+	private static int offset(int x, int y) {
+		return ((y & TILE_MASK) << TILE_BITS) | (x & TILE_MASK);
+	}
+	
+	// width of the tiles of a column (and height of the tiles of a row), smaller on the last 
+	// one when the board is not a whole number of tiles
+	private int tileWidth(int column) {
+		return Math.min(TILE_SIZE, size - (column << TILE_BITS));
+	}
+
+	public int get(int x, int y) {
+		byte[] cells = tiles[tile(x, y)];
+		if (cells == null) 
+			return Game.EMPTY;
+		return cells[offset(x, y)];
+	}
+
+	public void set(int x, int y, int value) {
+		int t = tile(x, y);
+		byte[] cells = tiles[t];
+		if (cells == null) {
+			if (value == Game.EMPTY) return;
+			if (numSpareTiles > 0) {
+				cells = spareTiles[--numSpareTiles];
+				spareTiles[numSpareTiles] = null;
+			}
+			else
+				cells = new byte[TILE_SIZE * TILE_SIZE];
+			tiles[t] = cells;
+			numTiles++;
+		}
+		int k = offset(x, y);
+		if (cells[k] == Game.EMPTY && value != Game.EMPTY) {
+			occupied[t]++;
+			numOccupied++;
+			emptyTiles.add(t, -1);
+		}
+		else if (cells[k] != Game.EMPTY && value == Game.EMPTY) {
+			numOccupied--;
+			emptyTiles.add(t, 1);
+			if (--occupied[t] == 0) {
+				cells[k] = Game.EMPTY;
+				if (numSpareTiles < MAX_SPARE_TILES)
+					spareTiles[numSpareTiles++] = cells;
+				tiles[t] = null;
+				numTiles--;
+				return;
+			}
+		}
+		cells[k] = (byte) value;
+	}
+
+	public void clear() {
+		for (int t = 0; t < tiles.length; ++t) {
+			tiles[t] = null;
+			occupied[t] = 0;
+		}
+		numTiles = 0;
+		numOccupied = 0;
+		emptyTiles.clear();
+		for (int t = 0; t < tiles.length; ++t)
+			emptyTiles.add(t, tileWidth(t % tilesPerRow) * tileWidth(t / tilesPerRow));
+	}
+	
+	public boolean isSparse() {
+		return true;
+	}
+	
+	public int getTileSize() {
+		return TILE_SIZE;
+	}
+	
+	public boolean isEmptyTile(int x, int y) {
+		return tiles[tile(x, y)] == null;
+	}
+	
+	public int getNumEmpty() {
+		return size * size - numOccupied;
+	}
+	
+	// rejection sampling, as an index of the empty cells would take memory for the whole board, 
+	// and then the k-th empty cell for a random k, found through the tile holding it (either 
+	// way the pick only depends on the cells and the random generator)
+	public int randomEmptyCell(Random random) {
+		if (getNumEmpty() == 0) return -1;
+		for (int t = 0; t < MAX_SAMPLES; ++t) {
+			int x = random.nextInt(size), y = random.nextInt(size);
+			if (get(x, y) == Game.EMPTY)
+				return index(x, y);
+		}
+		int k = random.nextInt(getNumEmpty());
+		int t = emptyTiles.find(k);
+		k -= emptyTiles.countBefore(t);
+		int x0 = (t % tilesPerRow) << TILE_BITS, y0 = (t / tilesPerRow) << TILE_BITS;
+		int width = tileWidth(t % tilesPerRow), height = tileWidth(t / tilesPerRow);
+		byte[] cells = tiles[t];
+		if (cells == null)
+			return index(x0 + k % width, y0 + k / width);
+		for (int y = 0; y < height; ++y)
+			for (int x = 0; x < width; ++x)
+				if (cells[(y << TILE_BITS) | x] == Game.EMPTY && k-- == 0)
+					return index(x0 + x, y0 + y);
+		return -1;
+	}
+	
+	// the walk goes over a whole tile at once when it is empty
+	public int freeDistance(int x, int y, int direction, int cap) {
+		int dx = Direction.dx[direction], dy = Direction.dy[direction];
+		int d = 0;
+		x += dx;
+		y += dy;
+		while (d < cap && contains(x, y)) {
+			if (tiles[tile(x, y)] == null) {
+				// cells left in the tile, up to its far side in the direction of the walk
+				int k = dx > 0 ? TILE_SIZE - (x & TILE_MASK) : dx < 0 ? (x & TILE_MASK) + 1 :
+					dy > 0 ? TILE_SIZE - (y & TILE_MASK) : (y & TILE_MASK) + 1;
+				x += dx * k;
+				y += dy * k;
+				d += k;
+			}
+			else if (get(x, y) == Game.EMPTY) {
+				x += dx;
+				y += dy;
+				d++;
+			}
+			else 
+				break;
+		}
+		// the last tile may have been crossed past the border or the cap
+		if (!contains(x, y))
+			d -= dx > 0 ? x - size : dx < 0 ? -1 - x : dy > 0 ? y - size : -1 - y;
+		return Math.min(d, cap);
+	}
+	
+	// number of tiles currently allocated
+	public int getNumTiles() {
+		return numTiles;
+	}
+}
@@ -0,0 +1,174 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+import java.util.Random;
+
+// grid stored as one flat array, for boards small enough to be allocated and scanned entirely
+// (free distances are looked up in run-length tables, built on the first query and then updated 
+// by the cells becoming empty or not, over the stretches of empty cells behind them only)
+public class FlatGrid extends Grid {
+	private byte[] cells;
+	private int numFree;
+	// index of the empty cells: a bit per cell in each row (set if the cell is empty), and the 
+	// number of empty cells of each row, ranked by row so that the k-th empty cell is found in 
+	// O(log size) whatever the order in which the cells have been set
+	private long[] emptyBits;
+	private int wordsPerRow;
+	private RankTree emptyRows;
+	// runs[d][i] is the number of empty cells met when going straight from cell i in direction d, 
+	// counting cell i itself (0 if it is not empty), as an unsigned byte since the board is at 
+	// most MAX_FLAT_SIZE wide (built on the first query)
+	private byte[][] runs;
+
+	public FlatGrid(int size) {
+		super(size);
+		cells = new byte[size * size];
+		wordsPerRow = (size + 63) >> 6;
+		emptyBits = new long[size * wordsPerRow];
+		emptyRows = new RankTree(size);
+		clear();
+	}
+
+	public int get(int index) {
+		return cells[index];
+	}
+
+	public int get(int x, int y) {
+		return cells[y * size + x];
+	}
+
+	public void set(int index, int value) {
+		if (cells[index] == Game.EMPTY && value != Game.EMPTY) 
+			numFree--;
+		else if (cells[index] != Game.EMPTY && value == Game.EMPTY) 
+			numFree++;
+		else {
+			cells[index] = (byte) value;
+			return;
+		}
+		cells[index] = (byte) value;
+		int y = index / size, x = index - y * size;
+		emptyBits[y * wordsPerRow + (x >> 6)] ^= 1L << x;
+		emptyRows.add(y, value == Game.EMPTY ? 1 : -1);
+		if (runs != null)
+			updateRuns(x, y);
+	}
+	
+	// update the runs of a cell which has become empty or not, and of the empty cells leading to 
+	// it in each direction (up to the nearest cell which is not empty)
+	private void updateRuns(int x, int y) {
+		for (int d = 0; d < 4; ++d) {
+			byte[] run = runs[d];
+			int dx = Direction.dx[d], dy = Direction.dy[d];
+			int index = y * size + x, r = 0;
+			if (cells[index] == Game.EMPTY)
+				r = 1 + (contains(x + dx, y + dy) ? run[index + dy * size + dx] & 0xFF : 0);
+			run[index] = (byte) r;
+			for (int i = x - dx, j = y - dy; contains(i, j); i -= dx, j -= dy) {
+				index = j * size + i;
+				if (cells[index] != Game.EMPTY) break;
+				run[index] = (byte) ++r;
+			}
+		}
+	}
+	
+	// build the runs in each direction, starting from the side the direction points to
+	private void buildRuns() {
+		if (runs == null)
+			runs = new byte[4][size * size];
+		for (int d = 0; d < 4; ++d) {
+			byte[] run = runs[d];
+			int dx = Direction.dx[d], dy = Direction.dy[d];
+			for (int j = 0; j < size; ++j) {
+				int y = dy > 0 ? size - 1 - j : j;
+				for (int i = 0; i < size; ++i) {
+					int x = dx > 0 ? size - 1 - i : i;
+					int index = y * size + x, r = 0;
+					if (cells[index] == Game.EMPTY)
+						r = 1 + (contains(x + dx, y + dy) ? run[index + dy * size + dx] & 0xFF : 0);
+					run[index] = (byte) r;
+				}
+			}
+		}
+	}
+
+	public void set(int x, int y, int value) {
+		set(y * size + x, value);
+	}
+
+	public void clear() {
+		for (int i = 0; i < cells.length; ++i) 
+			cells[i] = Game.EMPTY;
+		numFree = cells.length;
+		if (runs != null)
+			buildRuns();
+		emptyRows.clear();
+		for (int y = 0; y < size; ++y) {
+			for (int w = 0; w < wordsPerRow; ++w) {
+				int n = Math.min(64, size - (w << 6));
+				emptyBits[y * wordsPerRow + w] = n == 64 ? -1L : (1L << n) - 1;
+			}
+			emptyRows.add(y, size);
+		}
+	}
+	
+	public int freeDistance(int x, int y, int direction, int cap) {
+		x += Direction.dx[direction];
+		y += Direction.dy[direction];
+		if (!contains(x, y)) return 0;
+		if (runs == null)
+			buildRuns();
+		return Math.min(cap, runs[direction][y * size + x] & 0xFF);
+	}
+	
+	public int getNumEmpty() {
+		return numFree;
+	}
+	
+	// the k-th empty cell in index order, for a random k: the pick only depends on the cells and 
+	// the random generator (not on the order of the updates), so that a restored game picks the 
+	// same cells as the original one
+	public int randomEmptyCell(Random random) {
+		if (numFree == 0) return -1;
+		int k = random.nextInt(numFree);
+		int y = emptyRows.find(k);
+		k -= emptyRows.countBefore(y);
+		for (int w = y * wordsPerRow; ; ++w) {
+			long bits = emptyBits[w];
+			int n = Long.bitCount(bits);
+			if (k < n) {
+				for (; k > 0; --k)
+					bits &= bits - 1;
+				return y * size + ((w - y * wordsPerRow) << 6) + Long.numberOfTrailingZeros(bits);
+			}
+			k -= n;
+		}
+	}
+	
+	public boolean isSparse() {
+		return false;
+	}
+	
+	// the whole grid is a single tile
+	public int getTileSize() {
+		return size;
+	}
+	
+	public boolean isEmptyTile(int x, int y) {
+		return false;
+	}
+}
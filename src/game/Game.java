@@ -16,7 +16,6 @@
 
 package game;
 import java.util.*;
-import java.util.Timer;
 import java.nio.ByteBuffer;
 
 // game controller
@@ -26,53 +25,148 @@ public class Game {
 	public static final int HOLE = -2;
 	public static final int WALL = -3;
 	public static final int NUM_FOODS = 2;
+	public static final int REVIVE_SNAKE_DELAY = 3000;
+	// most players of a game (every board size offered by the UI has room for their snakes)
+	public static final int MAX_PLAYERS = 64;
+	private static final int INPUT_QUEUE_CAPACITY = 16;
+	public static final int TURN_NONE = 0;
+	public static final int TURN_LEFT = -1;
+	public static final int TURN_RIGHT = 1;
+	// causes of death
+	public static final int DEATH_WALL = 0;
+	public static final int DEATH_SELF = 1;
+	public static final int DEATH_OPPONENT = 2;
+	// cross-check the incrementally maintained grid against a full rebuild (-Dsnake.debugGrid=true)
+	private static final boolean DEBUG_GRID = Boolean.getBoolean("snake.debugGrid");
+	// random tries to place a single object on a sparse grid, where candidates are sampled 
+	// rather than enumerated
+	private static final int MAX_SAMPLES = 100000;
+	// first int of a packed game (see pack()): "SNK" and the version of the format, which lists 
+	// any number of players (the two-player format before it started with the board size)
+	private static final int PACK_MAGIC = 0x534E4B02;
 
-	public static int reviveSnakeDelay = 3000;
-	private int driveSnakeDelay = 200;
-	private int generateFoodDelay = 2000;
-	private int unkennelSnakeDelay = 2000;
+	private int driveSnakeDelay;
+	private int numFoods;
 	
 	int size;
+	int numPlayers;
 	int minAvailableDistance = 5;
 	int initialSnakeLength = 2;
 	
 	public ArrayList<Wall> walls = new ArrayList<Wall>();;
 	public ArrayList<Point> holes = new ArrayList<Point>();
-	public ArrayList<Point> foods = new ArrayList<Point>();;
-	public Snake[] snakes = new Snake[2];
-	public int[][] grid;
-	public int[] numSnakes = new int[2];
-	public int[] score = new int[2];
-	private GameListener listener;
-	private SnakeDriver[] snakeDriver = new SnakeDriver[2];
-	private ReviveSnakeTask[] reviveSnakeTask = new ReviveSnakeTask[2];
-	private UnkennelSnakeTask[] unkennelSnakeTask = new UnkennelSnakeTask[2];
-	private GenerateFoodTask generateFoodTask;
-	private long[] reviveTimeLeft = new long[2];
-	private long[] unkennelTimeLeft = new long[2];
-	private Timer timer = new Timer();
-	private Random random = new Random();
+	public ArrayList<Point> foods = new ArrayList<Point>();
+	// whether foods is shared with a snapshot (it is then copied before being changed)
+	private boolean foodsShared = false;
+	public Snake[] snakes;
+	public Grid grid;
+	public int[] numSnakes;
+	public int[] score;
+	public int[] deathCause;
+	// what changed during the last tick (cleared at the start of each tick)
+	public GameEvents events = new GameEvents();
+	private GameListener listener = new GameListener() {
+		public void refresh() {}
+		public void die(int player) {}
+		public void revive(int player) {}
+		public void finish(int winner) {}
+	};
+	private boolean[] driving;
+	private InputQueue[] inputs;
+	private int[] loopTurns;
+	private GameLoop loop;
+	private GameClock clock = new GameClock();
+	// delays counted in ticks, and the ticks left before the delayed events (0 when not scheduled)
+	private int reviveSnakeTicks, unkennelSnakeTicks, generateFoodTicks;
+	private int[] reviveTicksLeft;
+	private int[] unkennelTicksLeft;
+	private int generateFoodTicksLeft;
+	private long ticks = 0;
+	private int winner = -1;
+	private GameRandom random = new GameRandom();
+	private long seed;
+	private int level;
+	private boolean generated = false;
+	// seeds of the games created without one
+	private static final Random SEEDS = new Random();
+	// number of wall cells next to each cell (only kept for grids that are not sparse)
+	private byte[] wallNeighbors;
 	private boolean paused = false;
 	
+	// create a game, which does not move until it is started by startDriver() (real-time, 
+	// driven by a game loop) or by start() (headless, advanced by step())
 	public Game(int size, int level, int numSnakes, int driveSnakeDelay) {
-		this.size = size;
-		this.driveSnakeDelay = driveSnakeDelay;
-		score[0] = score[1] = 0;
+		this(new GameSettings(size, level, numSnakes, driveSnakeDelay));
+	}
+	
+	public Game(int size, int level, int numSnakes, int driveSnakeDelay, long seed) {
+		this(new GameSettings(size, level, numSnakes, driveSnakeDelay), seed);
+	}
+	
+	// create a game with a random seed
+	public Game(GameSettings settings) {
+		this(settings, SEEDS.nextLong());
+	}
+	
+	// create a game whose map and random events only depend on the seed (and the settings)
+	public Game(GameSettings settings, long seed) {
+		this(settings, seed, null);
+	}
+	
+	// create a game, taking its walls and holes from a map cache if they have been generated 
+	// before (and adding them to the cache otherwise)
+	public Game(GameSettings settings, long seed, MapCache maps) {
+		this.seed = seed;
+		level = settings.level;
+		random.setSeed(seed);
+		size = settings.size;
+		driveSnakeDelay = settings.driveSnakeDelay;
+		numFoods = settings.numFoods;
+		initPlayers(settings.numPlayers);
+		reviveSnakeTicks = toTicks(settings.reviveSnakeDelay);
+		unkennelSnakeTicks = toTicks(settings.unkennelSnakeDelay);
+		generateFoodTicks = toTicks(settings.generateFoodDelay);
 		
-		updateGrid();
+		grid = Grid.create(size);
+		if (!grid.isSparse())
+			wallNeighbors = new byte[size * size];
 		
 		// generate the game
 		try {
-			generateWalls(2 * level, 2, size / 3);
-			generateWalls(level / 2, 1,  1);
-			generateHoles(2 + level / 3);
-			generateFoods(NUM_FOODS);
-			generateSnakes(numSnakes);
+			MapLayout layout = maps != null ? maps.get(size, settings.level, seed) : null;
+			if (layout != null) 
+				loadLayout(layout);
+			else {
+				generateWalls(2 * settings.level, 2, size / 3);
+				generateWalls(settings.level / 2, 1,  1);
+				generateHoles(2 + settings.level / 3);
+				if (maps != null)
+					maps.put(new MapLayout(size, settings.level, seed, walls, holes, random.getState()));
+			}
+			generateFoods(numFoods);
+			generateSnakes(settings.numSnakes);
+			generated = true;
 		} catch (NoEnoughSpaceException e) {
 			System.out.println(e);
 		}
 	}
 	
+	// allocate the per-player state
+	private void initPlayers(int numPlayers) {
+		this.numPlayers = numPlayers;
+		snakes = new Snake[numPlayers];
+		numSnakes = new int[numPlayers];
+		score = new int[numPlayers];
+		deathCause = new int[numPlayers];
+		driving = new boolean[numPlayers];
+		inputs = new InputQueue[numPlayers];
+		for (int i = 0; i < numPlayers; ++i)
+			inputs[i] = new InputQueue(INPUT_QUEUE_CAPACITY);
+		loopTurns = new int[numPlayers];
+		reviveTicksLeft = new int[numPlayers];
+		unkennelTicksLeft = new int[numPlayers];
+	}
+	
 	private byte[] readFromByteBuffer(ByteBuffer buffer) {
 		int length = buffer.getInt();
 		byte[] arr = new byte[length];
@@ -80,12 +174,21 @@ public class Game {
 		return arr;
 	}
 	
-	// decode from a packed game (when a new game state is received from the server)
+	// decode from a packed game (when a saved game is played back), in the current format or in the 
+	// two-player format of the older archives
 	public Game(byte[] packed) {
 		ByteBuffer buffer = ByteBuffer.wrap(packed);
 		
-		size = buffer.getInt();
-		for (int i = 0; i < 2; ++i) {
+		int magic = buffer.getInt();
+		if (magic == PACK_MAGIC) {
+			size = buffer.getInt();
+			initPlayers(buffer.getInt());
+		}
+		else {
+			size = magic;
+			initPlayers(2);
+		}
+		for (int i = 0; i < numPlayers; ++i) {
 			numSnakes[i] = buffer.getInt();
 			score[i] = buffer.getInt();
 		}
@@ -95,68 +198,141 @@ public class Game {
 		int sizeHoles = buffer.getInt();
 		for (int i = 0; i < sizeHoles; ++i)
 			holes.add(new Point(readFromByteBuffer(buffer)));
+		readFoodsAndSnakes(buffer, 0);
+		
+		updateGrid();
+	}
+	
+	// decode from a map sent by the server and a packed state (see packState()), with the players 
+	// numbered from the given one onwards so that it comes first
+	public Game(MapLayout map, byte[] packedState, int player) {
+		size = map.size;
+		level = map.level;
+		seed = map.seed;
+		walls.addAll(map.walls);
+		holes.addAll(map.holes);
+		ByteBuffer buffer = ByteBuffer.wrap(packedState);
+		initPlayers(buffer.getInt());
+		readScores(buffer, player);
+		readFoodsAndSnakes(buffer, player);
+		
+		updateGrid();
+	}
+	
+	// the index of a player once the players are numbered from the given one onwards
+	private int rotate(int i, int player) {
+		return (i - player + numPlayers) % numPlayers;
+	}
+	
+	private void readScores(ByteBuffer buffer, int player) {
+		for (int i = 0; i < numPlayers; ++i) {
+			numSnakes[rotate(i, player)] = buffer.getInt();
+			score[rotate(i, player)] = buffer.getInt();
+		}
+	}
+	
+	private void readFoodsAndSnakes(ByteBuffer buffer, int player) {
 		int sizeFoods = buffer.getInt();
 		for (int i = 0; i < sizeFoods; ++i)
 			foods.add(new Point(readFromByteBuffer(buffer)));
 		int sizeSnakes = buffer.getInt();
 		for (int i = 0; i < sizeSnakes; ++i)
-			snakes[i] = new Snake(readFromByteBuffer(buffer));
-		
-		updateGrid();
+			snakes[rotate(i, player)] = new Snake(readFromByteBuffer(buffer));
+	}
+	
+	// replace the dynamic state with a packed one (see packState()), keeping the walls and holes, 
+	// with the players numbered from the given one onwards
+	public void loadState(byte[] packedState, int player) {
+		ByteBuffer buffer = ByteBuffer.wrap(packedState);
+		synchronized (this) {
+			synchronized (grid) {
+				for (int i = 0; i < numPlayers; ++i)
+					paintSnake(i, EMPTY);
+				for (Point food : foods)
+					grid.set(food.x, food.y, EMPTY);
+				if (buffer.getInt() != numPlayers)
+					throw new IllegalArgumentException("The state has another number of players.");
+				readScores(buffer, player);
+				foods = new ArrayList<Point>();
+				foodsShared = false;
+				readFoodsAndSnakes(buffer, player);
+				for (Point food : foods)
+					grid.set(food.x, food.y, FOOD);
+				for (int i = 0; i < numPlayers; ++i)
+					paintSnake(i, i + 1);
+			}
+		}
 	}
 	
 	public int getSize() {
 		return size;
 	}
 	
+	// the seed the game was created with
+	public long getSeed() {
+		return seed;
+	}
+	
+	// whether everything could be generated (false if there was no enough space for some of it)
+	public boolean isGenerated() {
+		return generated;
+	}
+	
+	// put the walls and holes of a cached layout, in the order they were generated
+	private void loadLayout(MapLayout layout) {
+		for (Wall wall : layout.walls)
+			addWall(wall);
+		for (Point hole : layout.holes)
+			addHole(hole);
+		random.setState(layout.randomState);
+	}
+	
 	public boolean isPaused() {
 		return paused;
 	}
 	
-	// pause the game and stop the scheduled tasks
+	// convert a delay in milliseconds to a number of ticks
+	private int toTicks(int delay) {
+		return Math.max(1, (delay + driveSnakeDelay / 2) / driveSnakeDelay);
+	}
+	
+	// monotonic clock of the game, which stands still while the game is paused
+	public GameClock getClock() {
+		return clock;
+	}
+	
+	// number of ticks played so far
+	public long getTicks() {
+		return ticks;
+	}
+	
+	// whether the game has finished
+	public boolean isFinished() {
+		return winner >= 0;
+	}
+	
+	// the winner of a finished game
+	public int getWinner() {
+		return winner;
+	}
+	
+	// pause the game (the delayed events are counted in ticks, so they are paused as well)
 	public void pause() {
 		synchronized (this) {
 			paused = true;
-			for (int i = 0; i < 2; ++i) 
-				if (snakes[i].alive && snakes[i].first < snakes[i].last)
-					endDriver(i);
-				else if (snakes[i].alive && snakes[i].first >= snakes[i].last) {
-					if (unkennelSnakeTask[i] != null) {
-						unkennelTimeLeft[i] = 
-								unkennelSnakeTask[i].scheduledExecutionTime() - System.currentTimeMillis();
-							unkennelSnakeTask[i].cancel();
-					}
-				}
-				else {
-					if (reviveSnakeTask[i] != null) {
-						reviveTimeLeft[i] = 
-								reviveSnakeTask[i].scheduledExecutionTime() - System.currentTimeMillis();
-							reviveSnakeTask[i].cancel();
-					}
-				}     
-			if (foods.size() == 0)
-				if (generateFoodTask != null)
-					generateFoodTask.cancel();
+			clock.pause();
+			if (loop != null)
+				loop.pause();
 		}
 	}
 	
 	// resume the game
 	public void resume() {
 		synchronized (this) {
-			for (int i = 0; i < 2; ++i) 
-				if (snakes[i].alive && snakes[i].first < snakes[i].last)
-					startDriver(i);
-				else if (snakes[i].alive && snakes[i].first >= snakes[i].last) {
-					if (unkennelSnakeTask[i] != null)
-						timer.schedule(unkennelSnakeTask[i] = new UnkennelSnakeTask(i), unkennelTimeLeft[i]);
-				}
-				else {
-					if (reviveSnakeTask[i] != null)
-						timer.schedule(reviveSnakeTask[i] = new ReviveSnakeTask(i), reviveTimeLeft[i]);
-				}
- 			if (foods.size() == 0)
-				timer.schedule(generateFoodTask = new GenerateFoodTask(), generateFoodDelay);
 			paused = false;
+			clock.resume();
+			if (loop != null)
+				loop.resume();
 			System.out.println("resumed");
 		}
 	}
@@ -177,226 +353,397 @@ public class Game {
 	// update the grid with wall/food/hole/snake locations
 	private void updateGrid() {
 		if (grid == null)
-			grid = new int[size][size];
+			grid = Grid.create(size);
 		synchronized (grid) {
-			for (int i = 0; i < size; ++i)
-				for (int j = 0; j < size; ++j) 
-					grid[i][j] = EMPTY;
-			for (Point food : foods) 
-				grid[food.x][food.y] = FOOD;
-			for (Point hole : holes) 
-				grid[hole.x][hole.y] = HOLE;
-			for (Wall wall : walls)
-				for (int k = 0; k < wall.length; ++k)
-					grid[wall.x + wall.dx * k][wall.y + wall.dy * k] = WALL;
-			for (int i = 0; i < 2; ++i) 
-				if (snakes[i] != null)
-					for (int j = snakes[i].first; j < snakes[i].last; ++j) {
-						Point p = snakes[i].body.get(j);
-						grid[snakes[i].body.get(j).x][p.y] = i + 1;
-					}
+			buildGrid(grid);
+		}
+	}
+	
+	// rebuild a grid from scratch
+	private void buildGrid(Grid grid) {
+		grid.clear();
+		for (Point food : foods) 
+			grid.set(food.x, food.y, FOOD);
+		for (Point hole : holes) 
+			grid.set(hole.x, hole.y, HOLE);
+		for (Wall wall : walls)
+			for (int k = 0; k < wall.length; ++k)
+				grid.set(wall.getX(k), wall.getY(k), WALL);
+		for (int i = 0; i < numPlayers; ++i) 
+			if (snakes[i] != null)
+				for (int j = snakes[i].first; j < snakes[i].last; ++j) 
+					grid.set(snakes[i].getX(j), snakes[i].getY(j), i + 1);
+	}
+	
+	// compare the incrementally maintained grid with a full rebuild (debug mode only)
+	private void checkGrid() {
+		if (!DEBUG_GRID) return;
+		Grid expected = Grid.create(size);
+		int tileSize = grid.getTileSize();
+		synchronized (grid) {
+			buildGrid(expected);
+			for (int x = 0; x < size; x += tileSize)
+				for (int y = 0; y < size; y += tileSize) {
+					if (grid.isEmptyTile(x, y) && expected.isEmptyTile(x, y)) continue;
+					for (int i = x; i < Math.min(x + tileSize, size); ++i)
+						for (int j = y; j < Math.min(y + tileSize, size); ++j)
+							if (grid.get(i, j) != expected.get(i, j))
+								throw new IllegalStateException(
+									"Grid mismatch at (" + i + ", " + j + "): " + 
+									grid.get(i, j) + " instead of " + expected.get(i, j));
+				}
+		}
+	}
+	
+	// fill the visible part of a snake on the grid
+	private void paintSnake(int player, int value) {
+		Snake snake = snakes[player];
+		if (snake == null) return;
+		synchronized (grid) {
+			for (int j = snake.first; j < snake.last; ++j) 
+				grid.set(snake.getX(j), snake.getY(j), value);
 		}
 	}
 	
 	// add a wall
 	private void addWall(Wall wall) {
 		walls.add(wall);
-		updateGrid();
+		synchronized (grid) {
+			for (int k = 0; k < wall.length; ++k)
+				grid.set(wall.getX(k), wall.getY(k), WALL);
+		}
+		if (wallNeighbors != null)
+			for (int k = 0; k < wall.length; ++k)
+				for (int d = 0; d < 4; ++d) {
+					int x = wall.getX(k) + Direction.dx[d];
+					int y = wall.getY(k) + Direction.dy[d];
+					if (grid.contains(x, y))
+						wallNeighbors[grid.index(x, y)]++;
+				}
+		checkGrid();
 	}
-
-	// whether a wall candidate is valid
+	
+	// whether some cell belongs to a wall
+	private static boolean isOnWall(Wall wall, int x, int y) {
+		return x >= wall.x && y >= wall.y && 
+			x <= wall.getX(wall.length - 1) && y <= wall.getY(wall.length - 1);
+	}
+	
+	// number of wall cells next to some cell
+	private int countWallNeighbors(int x, int y) {
+		if (wallNeighbors != null)
+			return wallNeighbors[grid.index(x, y)];
+		int cnt = 0;
+		for (int d = 0; d < 4; ++d) {
+			int nx = x + Direction.dx[d];
+			int ny = y + Direction.dy[d];
+			if (grid.contains(nx, ny) && grid.get(nx, ny) == WALL) 
+				++cnt;
+		}
+		return cnt;
+	}
+	
+	// whether a wall candidate is valid: it lies on empty cells and no cell gets more than 
+	// two wall neighbors (the existing walls are valid, so only the cells of the candidate and 
+	// the cells next to it have to be checked, and a cell next to a straight candidate has one 
+	// more wall neighbor, or two for the inner cells of the candidate itself)
 	private boolean isValidWall(Wall wall) {
-		boolean[][] tmp = new boolean[size][size];
-		for (int i = 0; i < size; ++i) 
-			for (int j = 0; j < size; ++j)
-				tmp[i][j] = grid[i][j] == WALL;
 		for (int k = 0; k < wall.length; ++k) {
 			int x = wall.getX(k);
 			int y = wall.getY(k);
-			if (!(x >= 0 && y >= 0 && x < size && y < size)) return false;
-			if (grid[x][y] != 0) return false;
-			tmp[x][y] = true;
+			if (!grid.contains(x, y)) return false;
+			if (grid.get(x, y) != EMPTY) return false;
 		}
-		for (int i = 0; i < size; ++i) 
-			for (int j = 0; j < size; ++j) {
-				int cnt = 0;
-				for (int d = 0; d < 4; ++d) {
-					int x = i + Direction.dx[d];
-					int y = j + Direction.dy[d];
-					if (x >= 0 && y >= 0 && x < size && y < size && tmp[x][y]) 
-						++cnt;
-				}
-				if (cnt > 2)
+		for (int k = 0; k < wall.length; ++k) {
+			int x = wall.getX(k);
+			int y = wall.getY(k);
+			int inner = (k > 0 ? 1 : 0) + (k + 1 < wall.length ? 1 : 0);
+			if (countWallNeighbors(x, y) + inner > 2) return false;
+			for (int d = 0; d < 4; ++d) {
+				int nx = x + Direction.dx[d];
+				int ny = y + Direction.dy[d];
+				if (!grid.contains(nx, ny) || isOnWall(wall, nx, ny)) continue;
+				if (countWallNeighbors(nx, ny) + 1 > 2)
 					return false;
+			}
 		}
 		return true;
 	}
 	
-	// check whether the wall candidates are valid
-	private ArrayList<Wall> checkWalls(ArrayList<Wall> wallCandidates) {
-		ArrayList<Wall> _wallCandidates = wallCandidates;
-		wallCandidates = new ArrayList<Wall>();
-		for (Wall wall : _wallCandidates)
+	// a random valid wall on a sparse grid, or null if none has been found
+	private Wall sampleWall(int minWallLength, int maxWallLength) {
+		minWallLength = Math.max(1, minWallLength);
+		for (int t = 0; t < MAX_SAMPLES; ++t) {
+			int length = minWallLength + random.nextInt(Math.max(1, maxWallLength - minWallLength + 1));
+			Wall.Direction direction = random.nextInt(2) > 0 ? Wall.Direction.VERTICAL : Wall.Direction.HORIZONTAL;
+			Wall wall = new Wall(random.nextInt(size), random.nextInt(size), length, direction);
 			if (isValidWall(wall))
-				wallCandidates.add(wall);
-		return wallCandidates;
+				return wall;
+		}
+		return null;
 	}
 	
-	// generate new walls
-	public void generateWalls(int numWalls, int minWallLength, int maxWallLength) 
+	// a random valid wall on a sparse grid, perpendicular to a given wall and next to one of 
+	// its ends, or null if none has been found
+	private Wall sampleNeighborWall(Wall wall, int minWallLength, int maxWallLength) {
+		minWallLength = Math.max(1, minWallLength);
+		Wall.Direction direction = wall.direction == Wall.Direction.HORIZONTAL ? 
+			Wall.Direction.VERTICAL : Wall.Direction.HORIZONTAL;
+		int dx = direction == Wall.Direction.HORIZONTAL ? 1 : 0, dy = 1 - dx;
+		for (int t = 0; t < MAX_SAMPLES / 100; ++t) {
+			int end = random.nextInt(2) * (wall.length - 1), d = random.nextInt(4);
+			int length = minWallLength + random.nextInt(Math.max(1, maxWallLength - minWallLength + 1));
+			int offset = random.nextInt(length);
+			int x = wall.getX(end) + Direction.dx[d] - dx * offset;
+			int y = wall.getY(end) + Direction.dy[d] - dy * offset;
+			Wall nextWall = new Wall(x, y, length, direction);
+			if (isValidWall(nextWall))
+				return nextWall;
+		}
+		return null;
+	}
+	
+	// generate new walls on a sparse grid
+	private void sampleWalls(int numWalls, int minWallLength, int maxWallLength) 
 			throws NoEnoughSpaceException {
-		ArrayList<Wall> wallCandidates = new ArrayList<Wall>();
-		for (int i = 0; i < size; ++i) 
-			for (int j = 0; j < size; ++j) {
-				for (int k = Math.max(1, minWallLength); 
-						k <= Math.min(size - i, maxWallLength); ++k) 
-					wallCandidates.add(new Wall(i, j, k, Wall.Direction.HORIZONTAL));
-				for (int k = Math.max(1, minWallLength); 
-						k <= Math.min(size - j, maxWallLength); ++k) 
-					wallCandidates.add(new Wall(i, j, k, Wall.Direction.VERTICAL));
+		for (int k = 0; k < numWalls; ++k) {
+			Wall wall = sampleWall(minWallLength, maxWallLength);
+			if (wall == null)
+				throw new NoEnoughSpaceException(
+					"No enough space to generate all walls. Only generated " + k + " walls.");
+			addWall(wall);
+			
+			// generate the second segment of a wall
+			if (maxWallLength > 1 && k + 1 < numWalls && random.nextInt(2) > 0) {
+				Wall nextWall = sampleNeighborWall(wall, minWallLength, maxWallLength);
+				if (nextWall != null) {
+					k++;
+					addWall(nextWall);
+				}
 			}
-		wallCandidates = checkWalls(wallCandidates);
+		}
+	}
+	
+	// the wall candidates of generateWalls() are encoded as 
+	// ((y * size + x) * 2 + direction) * numLengths + length - minWallLength
+	private Wall decodeWall(int candidate, int minWallLength, int numLengths) {
+		int length = candidate % numLengths + minWallLength;
+		candidate /= numLengths;
+		Wall.Direction direction = Wall.Direction.values()[candidate % 2];
+		candidate /= 2;
+		return new Wall(candidate % size, candidate / size, length, direction);
+	}
+	
+	private int encodeWall(Wall wall, int minWallLength, int numLengths) {
+		return ((wall.y * size + wall.x) * 2 + wall.direction.ordinal()) * numLengths 
+			+ wall.length - minWallLength;
+	}
+	
+	// valid walls perpendicular to a given wall and next to one of its ends (found around the 
+	// ends rather than among all the candidates)
+	private ArrayList<Wall> getNeighborWalls(Wall wall, int minWallLength, int maxWallLength) {
+		ArrayList<Wall> neighborWalls = new ArrayList<Wall>();
+		HashSet<Integer> found = new HashSet<Integer>();
+		Wall.Direction direction = wall.direction == Wall.Direction.HORIZONTAL ? 
+			Wall.Direction.VERTICAL : Wall.Direction.HORIZONTAL;
+		int dx = direction == Wall.Direction.HORIZONTAL ? 1 : 0, dy = 1 - dx;
+		int numLengths = maxWallLength - minWallLength + 1;
+		for (int end = 0; end < wall.length; end += Math.max(1, wall.length - 1))
+			for (int d = 0; d < 4; ++d) 
+				for (int k = minWallLength; k <= maxWallLength; ++k)
+					for (int offset = 0; offset < k; ++offset) {
+						int x = wall.getX(end) + Direction.dx[d] - dx * offset;
+						int y = wall.getY(end) + Direction.dy[d] - dy * offset;
+						Wall nextWall = new Wall(x, y, k, direction);
+						if (isValidWall(nextWall) && found.add(encodeWall(nextWall, minWallLength, numLengths)))
+							neighborWalls.add(nextWall);
+					}
+		return neighborWalls;
+	}
+	
+	// generate new walls (the candidates are checked lazily: an invalid candidate is only 
+	// dropped when it is picked, and then another one is picked instead)
+	public void generateWalls(int numWalls, int minWallLength, int maxWallLength) 
+			throws NoEnoughSpaceException {
+		if (grid.isSparse()) {
+			sampleWalls(numWalls, minWallLength, maxWallLength);
+			return;
+		}
+		minWallLength = Math.max(1, minWallLength);
+		int numLengths = Math.max(0, maxWallLength - minWallLength + 1);
+		int[] wallCandidates = new int[size * size * 2 * numLengths];
+		int numCandidates = 0;
+		for (int j = 0; j < size; ++j) 
+			for (int i = 0; i < size; ++i) 
+				for (int direction = 0; direction < 2; ++direction) 
+					for (int k = minWallLength; k <= maxWallLength; ++k) 
+						if ((direction == 0 ? i : j) + k <= size)
+							wallCandidates[numCandidates++] = ((j * size + i) * 2 + direction) * numLengths 
+								+ k - minWallLength;
 		for (int k = 0; k < numWalls; ++k) {
-			if (wallCandidates.size() == 0) 
+			Wall wall = null;
+			while (wall == null && numCandidates > 0) {
+				int idx = random.nextInt(numCandidates);
+				wall = decodeWall(wallCandidates[idx], minWallLength, numLengths);
+				if (!isValidWall(wall)) {
+					wallCandidates[idx] = wallCandidates[--numCandidates];
+					wall = null;
+				}
+			}
+			if (wall == null) 
 				throw new NoEnoughSpaceException(
 					"No enough space to generate all walls. Only generated " + k + " walls.");
-			int idx = random.nextInt(wallCandidates.size());
-			Wall wall = wallCandidates.get(idx);
 			addWall(wall);
 			
 			// generate the second segment of a wall
 			if (maxWallLength > 1 && k + 1 < numWalls && random.nextInt(2) > 0)  {
-				ArrayList<Wall> neighborWallCandidates = new ArrayList<Wall>();
-				int x1 = wall.x, y1 = wall.y;
-				int x2 = wall.getX(wall.length - 1), y2 = wall.getY(wall.length - 1);
-				for (Wall nextWall : wallCandidates) 
-					if (nextWall.direction != wall.direction) {
-						boolean neighbor = false;
-						for (int i = 0; i < nextWall.length; ++i)
-							for (int d = 0; d < 4; ++d) {
-								int x = nextWall.getX(i) + Direction.dx[d];
-								int y = nextWall.getY(i) + Direction.dy[d];
-								if (x == x1 && y == y1 || x == x2 && y == y2) 
-									neighbor = true;
-							}
-						if (!neighbor) continue;
-						if (isValidWall(nextWall))
-							neighborWallCandidates.add(nextWall);						
-					}
+				ArrayList<Wall> neighborWallCandidates = getNeighborWalls(wall, minWallLength, maxWallLength);
 				if (neighborWallCandidates.size() > 0) {
 					k++;
-					idx = random.nextInt(neighborWallCandidates.size());
-					addWall(neighborWallCandidates.get(idx));
+					addWall(neighborWallCandidates.get(random.nextInt(neighborWallCandidates.size())));
 				}
 			}
-			wallCandidates = checkWalls(wallCandidates);
 		}
 	}
 	
-	// get maximum available distance when going straight from some point (among four directions) 
-	private int getMaxAvailableDistance(Point hole) {
+	// get maximum available distance when going straight from some point (among four directions), 
+	// counted up to cap only
+	private int getMaxAvailableDistance(Point hole, int cap) {
 		int maxDistance = 0;
-		for (int k = 0; k < 4; ++k) {
-			int x = hole.x + Direction.dx[k], y = hole.y + Direction.dy[k];
-			int d = 0;
-			while (x >= 0 && y >= 0 && x < size && y < size && grid[x][y] == EMPTY) {
-				x += Direction.dx[k];
-				y += Direction.dy[k];
-				d++;
-			}
-			if (d > maxDistance) maxDistance = d;
-		}
+		for (int k = 0; k < 4 && maxDistance < cap; ++k) 
+			maxDistance = Math.max(maxDistance, grid.freeDistance(hole.x, hole.y, k, cap));
 		return maxDistance;
 	}
 	
 	// whether some point is valid to be a hole
 	private boolean isValidHole(Point hole) {
-		if (grid[hole.x][hole.y] != EMPTY) return false;
-		return getMaxAvailableDistance(hole) >= minAvailableDistance;
-	}
-	
-	// whether the hole candidates are valid
-	private ArrayList<Point> checkHoles(ArrayList<Point> holeCandidates) {
-		ArrayList<Point> _holeCandidates = holeCandidates;
-		holeCandidates = new ArrayList<Point>();
-		for (Point hole : _holeCandidates)
-			if (isValidHole(hole))
-				holeCandidates.add(hole);
-		return holeCandidates;
+		if (grid.get(hole.x, hole.y) != EMPTY) return false;
+		return getMaxAvailableDistance(hole, minAvailableDistance) >= minAvailableDistance;
 	}
 	
 	// add a new hole
 	private void addHole(Point hole) {
 		holes.add(hole);
-		updateGrid();
+		synchronized (grid) {
+			grid.set(hole.x, hole.y, HOLE);
+		}
+		checkGrid();
+	}
+	
+	// a random valid hole on a sparse grid, or null if none has been found
+	private Point sampleHole() {
+		for (int t = 0; t < MAX_SAMPLES; ++t) {
+			int cell = grid.randomEmptyCell(random);
+			if (cell < 0) return null;
+			Point hole = new Point(cell % size, cell / size);
+			if (isValidHole(hole))
+				return hole;
+		}
+		return null;
 	}
 	
 	// generate holes
 	public void generateHoles(int numHoles) throws NoEnoughSpaceException {
-		ArrayList<Point> holeCandidates = new ArrayList<Point>();
-		for (int i = 0; i < size; ++i) 
-			for (int j = 0; j < size; ++j) 
-				holeCandidates.add(new Point(i, j));
-		holeCandidates = checkHoles(holeCandidates);
+		if (grid.isSparse()) {
+			for (int k = 0; k < numHoles; ++k) {
+				Point hole = sampleHole();
+				if (hole == null) 
+					throw new NoEnoughSpaceException(
+						"No enough space to generate all holes. Only generated " + k + " holes.");
+				addHole(hole);
+			}
+			return;
+		}
+		// the candidates are checked lazily, like the wall candidates
+		int[] holeCandidates = new int[size * size];
+		int numCandidates = holeCandidates.length;
+		for (int i = 0; i < numCandidates; ++i)
+			holeCandidates[i] = i;
 		for (int k = 0; k < numHoles; ++k) {
-			if (holeCandidates.size() == 0) 
+			Point hole = null;
+			while (hole == null && numCandidates > 0) {
+				int idx = random.nextInt(numCandidates);
+				hole = new Point(holeCandidates[idx] % size, holeCandidates[idx] / size);
+				if (!isValidHole(hole)) {
+					holeCandidates[idx] = holeCandidates[--numCandidates];
+					hole = null;
+				}
+			}
+			if (hole == null) 
 				throw new NoEnoughSpaceException(
 					"No enough space to generate all holes. Only generated " + k + " holes.");
-			int idx = random.nextInt(holeCandidates.size());
-			addHole(holeCandidates.get(idx));
-			holeCandidates = checkHoles(holeCandidates);
+			addHole(hole);
 		}
-		updateGrid();
+	}
+	
+	// get a copy of foods before changing it if a snapshot shares it
+	private void ownFoods() {
+		if (!foodsShared) return;
+		foods = new ArrayList<Point>(foods);
+		foodsShared = false;
 	}
 	
 	// add a food
 	private void addFood(Point food) {
-		foods.add(food);
-		updateGrid();
+		synchronized (grid) {
+			ownFoods();
+			foods.add(food);
+			grid.set(food.x, food.y, FOOD);
+		}
+		events.add(GameEvents.FOOD_SPAWNED, -1, Point.encode(food.x, food.y), 0);
+		checkGrid();
 	}
 	
-	// generate foods
+	// generate foods (each at an empty cell picked at random from the grid)
 	public void generateFoods(int numFood) throws NoEnoughSpaceException {
-		ArrayList<Point> foodCandidates = new ArrayList<Point>();
-		for (int i = 0; i < size; ++i) 
-			for (int j = 0; j < size; ++j)
-				if (grid[i][j] == EMPTY)
-					foodCandidates.add(new Point(i, j));
-		Collections.shuffle(foodCandidates);
 		for (int k = 0; k < numFood; ++k) {
-			if (k >= foodCandidates.size())
+			int cell = grid.randomEmptyCell(random);
+			if (cell < 0)
 				throw new NoEnoughSpaceException(
 					"No enough space to generate all foods. Only generated " + k + " foods.");
-			addFood(foodCandidates.get(k));
+			addFood(new Point(cell % size, cell / size));
+		}
+	}
+	
+	// whether a new snake can be placed with its head at (i, j) in direction d: 0 if not, 1 if 
+	// it fits, and 2 if it also has enough room ahead
+	private int checkSnakeCandidate(int i, int j, int d) {
+		if (grid.get(i, j) != EMPTY || grid.freeDistance(i, j, d, initialSnakeLength - 1) < initialSnakeLength - 1)
+			return 0;
+		if (grid.freeDistance(i, j, Direction.opposite(d), minAvailableDistance) < minAvailableDistance)
+			return 1;
+		return 2;
+	}
+	
+	// generate a snake on a sparse grid
+	private Snake sampleSnake() throws NoEnoughSpaceException {
+		SnakeSegment candidateSoft = null;
+		for (int t = 0; t < MAX_SAMPLES; ++t) {
+			int i = random.nextInt(size), j = random.nextInt(size), d = random.nextInt(4);
+			int valid = checkSnakeCandidate(i, j, d);
+			if (valid == 2)
+				return new Snake(new SnakeSegment(i, j, d, initialSnakeLength));
+			if (valid == 1 && candidateSoft == null)
+				candidateSoft = new SnakeSegment(i, j, d, initialSnakeLength);
 		}
+		if (candidateSoft == null)
+			throw new NoEnoughSpaceException("No enough space to generate the new snake.");
+		return new Snake(candidateSoft);
 	}
 	
 	// generate snakes
 	private Snake generateSnake() throws NoEnoughSpaceException {
+		if (grid.isSparse())
+			return sampleSnake();
 		ArrayList<SnakeSegment> snakeCandidatesHard = new ArrayList<SnakeSegment>();
 		ArrayList<SnakeSegment> snakeCandidatesSoft = new ArrayList<SnakeSegment>();
 		for (int i = 0; i < size; ++i) 
 			for (int j = 0; j < size; ++j)
 				for (int d = 0; d < 4; ++d) {
-					boolean valid = true;
-					for (int k = 0; k < initialSnakeLength; ++k) {
-						int x = i + Direction.dx[d] * k; 
-						int y = j + Direction.dy[d] * k;
-						if (!(x >= 0 && y >= 0 && x < size && y < size)) valid = false;
-						else if (grid[x][y] != 0)
-							valid = false;
-					}
-					boolean validHard = valid;
-					for (int k = 1; k <= minAvailableDistance; ++k) {
-						int x = i - Direction.dx[d] * k; 
-						int y = j - Direction.dy[d] * k;
-						if (!(x >= 0 && y >= 0 && x < size && y < size)) validHard = false;
-						else if (grid[x][y] != 0)
-							validHard = false;
-					}
-					if (validHard) 
+					int valid = checkSnakeCandidate(i, j, d);
+					if (valid == 2) 
 						snakeCandidatesHard.add(new SnakeSegment(i, j, d, initialSnakeLength));
-					else if (valid)
+					else if (valid == 1)
 						snakeCandidatesSoft.add(new SnakeSegment(i, j, d, initialSnakeLength));
 				}
 		if (snakeCandidatesHard.size() == 0 && snakeCandidatesSoft.size() == 0)
@@ -410,45 +757,91 @@ public class Game {
 	// use the next snake (when the current snake is dead)
 	private void nextSnake(int player) throws NoEnoughSpaceException {
 		endDriver(player);
-		snakes[player] = generateSnake();
-		numSnakes[player]--;
-		updateGrid();
+		Snake snake = generateSnake();
+		inputs[player].clear();
+		synchronized (grid) {
+			paintSnake(player, EMPTY);
+			snakes[player] = snake;
+			numSnakes[player]--;
+			paintSnake(player, player + 1);
+		}
+		checkGrid();
 	}
 	
 	// generate snakes
 	public void generateSnakes(int numSnakes) throws NoEnoughSpaceException {
-		for (int i = 0; i < 2; ++i) 
+		for (int i = 0; i < numPlayers; ++i) 
 			this.numSnakes[i] = numSnakes;
-		for (int i = 0; i < 2; ++i)
+		for (int i = 0; i < numPlayers; ++i)
 			nextSnake(i);
 	}
 	
-	// turn a snake
+	// turn a snake (queued without locking and applied by the game loop, one turn per tick)
 	public void turn(int player, boolean isRight) {
-		if (!snakes[player].alive) return;
-		if (snakes[player].first > 0) return;
-		endDriver(player);
-		synchronized (snakes[player]) {
-			snakes[player].turn(isRight);
-			next(player);
-			listener.refresh();
+		inputs[player].offer(isRight ? TURN_RIGHT : TURN_LEFT);
+	}
+	
+	// advance the game by one tick with the queued turns (called by the game loop)
+	void tick() {
+		synchronized (this) {
+			for (int i = 0; i < numPlayers; ++i)
+				loopTurns[i] = inputs[i].poll();
+			step(loopTurns);
+		}
+		listener.refresh();
+	}
+	
+	// advance the game by one tick synchronously, with a turn (TURN_NONE, TURN_LEFT or TURN_RIGHT) 
+	// for each player
+	public void step(int[] turns) {
+		synchronized (this) {
+			if (paused) return;
+			ticks++;
+			events.clear();
+			
+			// delayed events
+			for (int i = 0; i < numPlayers; ++i) {
+				if (reviveTicksLeft[i] > 0 && --reviveTicksLeft[i] == 0)
+					reviveSnake(i);
+				if (paused) return;
+				if (unkennelTicksLeft[i] > 0 && --unkennelTicksLeft[i] == 0)
+					startFromHole(i);
+			}
+			if (generateFoodTicksLeft > 0 && --generateFoodTicksLeft == 0)
+				regenerateFoods();
+			
+			// move the snakes
+			for (int i = 0; i < numPlayers; ++i) {
+				if (paused) break;
+				if (!driving[i] || !isAlive(i)) continue;
+				// turns are ignored while the snake is going into a hole
+				if (turns[i] != TURN_NONE && snakes[i].first == 0)
+					snakes[i].turn(turns[i] == TURN_RIGHT);
+				next(i);
+			}
 		}
-		startDriver(player);
 	}
 	
-	// eat a food
-	private void eatFood(Point p) {
-		ArrayList<Point> _foods = foods;
-		foods = new ArrayList<Point>();
-		for (Point food : _foods)  
-			if (!food.equals(p))
-				foods.add(food);
-		if (foods.size() == 0) {
-			generateFoodTask = new GenerateFoodTask();
-			timer.schedule(generateFoodTask, generateFoodDelay);
+	// let all the snakes move (headless mode, where the game is advanced by step() only)
+	public void start() {
+		synchronized (this) {
+			for (int i = 0; i < numPlayers; ++i)
+				driving[i] = true;
 		}
 	}
 	
+	// eat the food at (x, y)
+	private void eatFood(int x, int y) {
+		ownFoods();
+		for (int i = 0; i < foods.size(); ++i)
+			if (foods.get(i).x == x && foods.get(i).y == y) {
+				foods.remove(i);
+				break;
+			}
+		if (foods.size() == 0) 
+			generateFoodTicksLeft = generateFoodTicks;
+	}
+	
 	// move the snake the next location
 	public int next(int player) {
 		synchronized (snakes[player]) {
@@ -461,52 +854,79 @@ public class Game {
 				return 0;
 			
 			// check death
-			Point nextHead = snake.nextHead();
+			int nextHead = snake.nextHeadCell();
+			int nextX = Point.decodeX(nextHead), nextY = Point.decodeY(nextHead);
 			int status = WALL;
-			if (nextHead.x >= 0 && nextHead.y >= 0 && nextHead.x < size && nextHead.y < size)
-				status = grid[nextHead.x][nextHead.y];
-			boolean die = status == WALL || status > 0;
-			Snake opponent = snakes[1 - player];
-			for (int i = opponent.first; i < opponent.last; ++i)
-				if (opponent.body.get(i).equals(nextHead))
-					die = true;
+			if (grid.contains(nextX, nextY))
+				status = grid.get(nextX, nextY);
+			int occupant = occupant(nextX, nextY);
+			boolean die = status == WALL || occupant >= 0;
 			if (die) {
 				snake.die();
+				if (status == WALL)
+					deathCause[player] = DEATH_WALL;
+				else
+					deathCause[player] = occupant == player ? DEATH_SELF : DEATH_OPPONENT;
+				events.add(GameEvents.SNAKE_DIED, player, snake.direction, deathCause[player]);
 				if (hasSnakesLeft(player)) {
-					reviveSnakeTask[player] = new ReviveSnakeTask(player);
-					timer.schedule(reviveSnakeTask[player], reviveSnakeDelay);
+					reviveTicksLeft[player] = reviveSnakeTicks;
 					listener.die(player);
 				}			
 				else {
-					numSnakes[player] = -1;
 					listener.refresh();
-					listener.finish(1 - player);
-					pause(); // to cancel scheduled tasks
+					eliminate(player);
 				}
 				return -1;
 			}
 			
 			if (snake.alive) {
-				if (status == EMPTY) {
-					snake.next(false, false);
-				}
-				else if (status == FOOD) {
-					snake.next(true, false);
-					score[player]++;
-					eatFood(snake.head());
-				}
-				else if (status == HOLE) {
-					snake.next(false, true);
-					if (snake.first >= snake.last) {
-						endDriver(player);
-						unkennelSnakeTask[player] = new UnkennelSnakeTask(player);
-						timer.schedule(unkennelSnakeTask[player], unkennelSnakeDelay);
+				synchronized (grid) {
+					// the tail leaves its cell unless the snake grows or is still coming out of a hole
+					int tail = -1;
+					if (status != FOOD && snake.first < snake.last && snake.last == snake.length())
+						tail = snake.last - 1;
+					int tailX = tail >= 0 ? snake.getX(tail) : 0;
+					int tailY = tail >= 0 ? snake.getY(tail) : 0;
+					
+					int flags = snake.direction;
+					if (status == EMPTY) {
+						snake.next(false, false);
 					}
+					else if (status == FOOD) {
+						snake.next(true, false);
+						flags |= GameEvents.MOVE_GREW;
+					}
+					else if (status == HOLE) {
+						snake.next(false, true);
+						flags |= GameEvents.MOVE_GOING_IN;
+					}
+					events.add(GameEvents.HEAD_MOVED, player, snake.get(0), flags);
+					if (status == FOOD) {
+						score[player]++;
+						eatFood(nextX, nextY);
+						events.add(GameEvents.FOOD_EATEN, player, nextHead, 0);
+						events.add(GameEvents.SCORE_CHANGED, player, score[player], 0);
+					}
+					else if (status == HOLE) {
+						if (snake.first == 1)
+							events.add(GameEvents.ENTERED_HOLE, player, nextHead, 0);
+						if (snake.first >= snake.last) {
+							endDriver(player);
+							unkennelTicksLeft[player] = unkennelSnakeTicks;
+						}
+					}
+					
+					if (tail >= 0) {
+						grid.set(tailX, tailY, EMPTY);
+						events.add(GameEvents.TAIL_REMOVED, player, Point.encode(tailX, tailY), 0);
+					}
+					if (snake.first == 0) 
+						grid.set(nextX, nextY, player + 1);
 				}
 			}
 		}
 		
-		updateGrid();	
+		checkGrid();
 		
 		return 0;
 	}
@@ -515,6 +935,7 @@ public class Game {
 	public int revive(int player) {
 		try {
 			nextSnake(player);
+			events.add(GameEvents.SNAKE_REVIVED, player, numSnakes[player], snakes[player].length());
 			startFromHole(player);
 		} catch (NoEnoughSpaceException e) {
 			System.out.println(e);
@@ -523,7 +944,8 @@ public class Game {
 		return 0;
 	}
 	
-	// encode the game (used before sending the game to clients)
+	// encode the game (used before sending the game to clients), with the players listed 
+	// from the given one onwards so that the receiver always comes first
 	public byte[] pack(int player) {
 		ArrayList<byte[]> packedWalls = new ArrayList<byte[]>();
 		ArrayList<byte[]> packedHoles = new ArrayList<byte[]>();
@@ -536,10 +958,10 @@ public class Game {
 			packedHoles.add(hole.pack());
 		for (Point food : foods)
 			packedFoods.add(food.pack());
-		packedSnakes.add(snakes[player].pack());
-		packedSnakes.add(snakes[1 - player].pack());
+		for (int i = 0; i < numPlayers; ++i)
+			packedSnakes.add(snakes[(player + i) % numPlayers].pack());
 		
-		int size = 9 * 4;
+		int size = (7 + 2 * numPlayers) * 4;
 		for (byte[] arr : packedWalls)
 			size += arr.length;
 		for (byte[] arr : packedHoles)
@@ -551,11 +973,13 @@ public class Game {
 		
 		ByteBuffer buffer = ByteBuffer.allocate(size + 4);
 		buffer.putInt(buffer.capacity() - 4);
+		buffer.putInt(PACK_MAGIC);
 		buffer.putInt(this.size);
-		buffer.putInt(numSnakes[player]);
-		buffer.putInt(score[player]);
-		buffer.putInt(numSnakes[1 - player]);
-		buffer.putInt(score[1 - player]);
+		buffer.putInt(numPlayers);
+		for (int i = 0; i < numPlayers; ++i) {
+			buffer.putInt(numSnakes[(player + i) % numPlayers]);
+			buffer.putInt(score[(player + i) % numPlayers]);
+		}
 		buffer.putInt(packedWalls.size());
 		for (byte[] arr : packedWalls)
 			buffer.put(arr);
@@ -571,141 +995,338 @@ public class Game {
 		return buffer.array();
 	}
 	
-	// start the snake driver
+	// encode the walls and holes (sent once to the clients, which keep them across states; the 
+	// state of the random generator is left out so that the clients cannot foresee the foods)
+	public byte[] packMap() {
+		byte[] packed = new MapLayout(size, level, seed, walls, holes, 0).pack();
+		ByteBuffer buffer = ByteBuffer.allocate(packed.length + 4);
+		buffer.putInt(packed.length);
+		buffer.put(packed);
+		return buffer.array();
+	}
+	
+	// encode the dynamic state, i.e. what pack() encodes except the walls and holes
+	public byte[] packState(int player) {
+		synchronized (this) {
+			ArrayList<byte[]> packedFoods = new ArrayList<byte[]>();
+			ArrayList<byte[]> packedSnakes = new ArrayList<byte[]>();
+			for (Point food : foods)
+				packedFoods.add(food.pack());
+			for (int i = 0; i < numPlayers; ++i)
+				packedSnakes.add(snakes[(player + i) % numPlayers].pack());
+			
+			int size = (3 + 2 * numPlayers) * 4;
+			for (byte[] arr : packedFoods)
+				size += arr.length;
+			for (byte[] arr : packedSnakes)
+				size += arr.length;
+			
+			ByteBuffer buffer = ByteBuffer.allocate(size + 4);
+			buffer.putInt(buffer.capacity() - 4);
+			buffer.putInt(numPlayers);
+			for (int i = 0; i < numPlayers; ++i) {
+				buffer.putInt(numSnakes[(player + i) % numPlayers]);
+				buffer.putInt(score[(player + i) % numPlayers]);
+			}
+			buffer.putInt(packedFoods.size());
+			for (byte[] arr : packedFoods)
+				buffer.put(arr);
+			buffer.putInt(packedSnakes.size());
+			for (byte[] arr : packedSnakes)
+				buffer.put(arr);
+			return buffer.array();
+		}
+	}
+	
+	// encode the events of the current tick from the given one onwards (a delta to apply to the 
+	// state packed before them), with the players numbered from the given one as in pack()
+	public byte[] packEvents(int from, int player) {
+		synchronized (this) {
+			int count = events.size() - from;
+			ByteBuffer buffer = ByteBuffer.allocate(8 + count * 10);
+			buffer.putInt(buffer.capacity() - 4);
+			buffer.putInt(count);
+			for (int i = from; i < events.size(); ++i) {
+				int p = events.getPlayer(i);
+				buffer.put((byte) events.getType(i));
+				buffer.put((byte) (p >= 0 ? rotate(p, player) : p));
+				buffer.putInt(events.getA(i));
+				buffer.putInt(events.getB(i));
+			}
+			return buffer.array();
+		}
+	}
+	
+	// apply packed events to the game in place (when a delta is received from the server), with 
+	// the players numbered from the given one onwards
+	public void applyEvents(byte[] packed, int player) {
+		ByteBuffer buffer = ByteBuffer.wrap(packed);
+		synchronized (this) {
+			synchronized (grid) {
+				int count = buffer.getInt();
+				for (int i = 0; i < count; ++i) {
+					int type = buffer.get();
+					int p = buffer.get();
+					int a = buffer.getInt();
+					int b = buffer.getInt();
+					applyEvent(type, p >= 0 ? rotate(p, player) : p, a, b);
+				}
+			}
+		}
+	}
+	
+	// apply an event (the grid is updated as the game did when the event happened)
+	private void applyEvent(int type, int player, int a, int b) {
+		Snake snake = player >= 0 ? snakes[player] : null;
+		switch (type) {
+		case GameEvents.HEAD_MOVED:
+			snake.direction = b & GameEvents.MOVE_DIRECTION;
+			snake.next((b & GameEvents.MOVE_GREW) != 0, (b & GameEvents.MOVE_GOING_IN) != 0);
+			if (snake.first == 0)
+				grid.set(Point.decodeX(a), Point.decodeY(a), player + 1);
+			break;
+		case GameEvents.TAIL_REMOVED:
+			grid.set(Point.decodeX(a), Point.decodeY(a), EMPTY);
+			break;
+		case GameEvents.FOOD_EATEN:
+			ownFoods();
+			for (int i = 0; i < foods.size(); ++i)
+				if (foods.get(i).x == Point.decodeX(a) && foods.get(i).y == Point.decodeY(a)) {
+					foods.remove(i);
+					break;
+				}
+			break;
+		case GameEvents.FOOD_SPAWNED:
+			ownFoods();
+			foods.add(new Point(Point.decodeX(a), Point.decodeY(a)));
+			grid.set(Point.decodeX(a), Point.decodeY(a), FOOD);
+			break;
+		case GameEvents.SNAKE_DIED:
+			snake.die();
+			snake.direction = a;
+			deathCause[player] = b;
+			break;
+		case GameEvents.SNAKE_REVIVED:
+			paintSnake(player, EMPTY);
+			// the body is put in place by the LEAVING_HOLE event that follows, and not visible until then
+			snakes[player] = new Snake(new SnakeSegment(0, 0, 0, b));
+			snakes[player].first = snakes[player].last = 0;
+			numSnakes[player] = a;
+			break;
+		case GameEvents.LEAVING_HOLE:
+			paintSnake(player, EMPTY);
+			snake.placeAtHole(Point.decodeX(a), Point.decodeY(a), b);
+			break;
+		case GameEvents.SCORE_CHANGED:
+			score[player] = a;
+			break;
+		case GameEvents.PLAYER_ELIMINATED:
+			numSnakes[player] = -1;
+			break;
+		case GameEvents.GAME_FINISHED:
+			winner = player;
+			break;
+		}
+	}
+	
+	// let the game loop drive the snake
 	public void startDriver(int player) {
-		snakeDriver[player] = new SnakeDriver(player);
-		timer.schedule(snakeDriver[player], driveSnakeDelay, driveSnakeDelay);
+		synchronized (this) {
+			driving[player] = true;
+			if (loop == null) {
+				loop = new GameLoop(this, clock, driveSnakeDelay);
+				loop.start();
+			}
+		}
 	}
 	
-	// end the snake driver
+	// stop driving the snake
 	public void endDriver(int player) {
-		if (snakeDriver[player] == null) return;
-		snakeDriver[player].cancel();
+		driving[player] = false;
+	}
+	
+	// stop the game loop
+	public void close() {
+		synchronized (this) {
+			paused = true;
+			clock.pause();
+			if (loop != null)
+				loop.close();
+		}
+	}
+	
+	// the player whose snake occupies some cell with a visible part of its body, or -1 if there is 
+	// none (the part of a snake inside a hole does not count, so a hole a snake is passing through 
+	// can still be entered or departed from)
+	public int occupant(int x, int y) {
+		if (!grid.contains(x, y)) return -1;
+		int status = grid.get(x, y);
+		if (status > 0) 
+			return status - 1;
+		return -1;
 	}
 	
 	// whether some hole is available for some snake to depart
 	private boolean isAvailableHole(Point hole) {
-		for (int i = 0; i < 2; ++i) 
-			if (snakes[i].alive) {
-				for (int j = snakes[i].first; j < snakes[i].last; ++j)
-					if (snakes[i].body.get(j).equals(hole))
-						return false;
-			}
-		return true;
+		return occupant(hole.x, hole.y) < 0;
+	}
+	
+	// whether some hole is available and has enough room to depart
+	private boolean isHoleCandidate(Point hole) {
+		return isAvailableHole(hole) && getMaxAvailableDistance(hole, minAvailableDistance) >= minAvailableDistance;
 	}
 	
 	// let the snake start from the hole
 	private void startFromHole(int player) {
-		ArrayList<Point> holeCandidates = new ArrayList<Point>();
-		for (Point hole : holes)
-			if (isAvailableHole(hole) && 
-					getMaxAvailableDistance(hole) >= minAvailableDistance)
-				holeCandidates.add(hole);
-		if (holeCandidates.size() == 0) {
+		// pick one of the candidate holes at random (counted first, so that no list is allocated)
+		int numCandidates = 0;
+		for (int i = 0; i < holes.size(); ++i)
+			if (isHoleCandidate(holes.get(i)))
+				numCandidates++;
+		Point holeOut = null;
+		if (numCandidates > 0) {
+			int k = random.nextInt(numCandidates);
+			for (int i = 0; holeOut == null; ++i)
+				if (isHoleCandidate(holes.get(i)) && k-- == 0)
+					holeOut = holes.get(i);
+		}
+		else {
+			// (no available hole has minAvailableDistance, so their distances are less than it)
 			int maxDistance = -1;
-			Point candidate = null;
-			for (Point hole : holes) 
-				if (isAvailableHole(hole)) {
-					int d = getMaxAvailableDistance(hole);
+			for (int i = 0; i < holes.size(); ++i) 
+				if (isAvailableHole(holes.get(i))) {
+					int d = getMaxAvailableDistance(holes.get(i), minAvailableDistance);
 					if (d > maxDistance) {
 						maxDistance = d;
-						candidate = hole;
+						holeOut = holes.get(i);
 					}
 				}
-			holeCandidates.add(candidate);
+			if (holeOut == null)
+				holeOut = holes.get(random.nextInt(holes.size()));
 		}
-		Point holeOut = holeCandidates.get(random.nextInt(holeCandidates.size()));
 		int best = 0, direction = 0;
 		for (int d = 0; d < 4; ++d) {
-			int cnt = 0;
-			int x = holeOut.x + Direction.dx[d];
-			int y = holeOut.y + Direction.dy[d];
-			while (x >= 0 && y >= 0 && x < size && y < size && grid[x][y] == EMPTY) {
-				++cnt;
-				x += Direction.dx[d];
-				y += Direction.dy[d];
-			}
+			int cnt = grid.freeDistance(holeOut.x, holeOut.y, d, size);
 			if (cnt > best) {
 				best = cnt;
 				direction = d;
 			}
 		}
 		synchronized (snakes[player]) {
-			snakes[player].first = snakes[player].last = 0;
-			snakes[player].direction = direction;
-			int length = snakes[player].body.size();
-			snakes[player].body = new ArrayList<Point>();
-			for (int i = 0; i < length; ++i)
-				snakes[player].body.add(new Point(
-					holeOut.x - i * Direction.dx[direction],
-					holeOut.y - i * Direction.dy[direction]
-				));
-			new SnakeDriver(player).run();
-			startDriver(player);
-		}		
-	}
-	
-	// snake driver
-	class SnakeDriver extends TimerTask {
-		private int player;
-		
-		public SnakeDriver(int player) {
-			this.player = player;
-		}
-		
-		public void run() {
-			if (paused) return;
-			if (!isAlive(player)) return;
-			next(player);
-			listener.refresh();
+			synchronized (grid) {
+				paintSnake(player, EMPTY);
+				snakes[player].placeAtHole(holeOut.x, holeOut.y, direction);
+			}
+			driving[player] = true;
 		}
+		events.add(GameEvents.LEAVING_HOLE, player, Point.encode(holeOut.x, holeOut.y), direction);		
 	}
 	
-	// timer task to revive a snake
-	class ReviveSnakeTask extends TimerTask {
-		private int player;
-		
-		public ReviveSnakeTask(int player) {
-			this.player = player;
+	// take a snapshot of the dynamic state (cheap enough to be taken at every tick: the snake bodies 
+	// and the foods are shared with the game until it changes them, so it costs O(players))
+	public GameSnapshot snapshot() {
+		synchronized (this) {
+			GameSnapshot snapshot = new GameSnapshot();
+			snapshot.game = this;
+			snapshot.snakes = new Snake[numPlayers];
+			for (int i = 0; i < numPlayers; ++i)
+				snapshot.snakes[i] = new Snake(snakes[i]);
+			snapshot.foods = foods;
+			foodsShared = true;
+			snapshot.numSnakes = numSnakes.clone();
+			snapshot.score = score.clone();
+			snapshot.deathCause = deathCause.clone();
+			snapshot.driving = driving.clone();
+			snapshot.reviveTicksLeft = reviveTicksLeft.clone();
+			snapshot.unkennelTicksLeft = unkennelTicksLeft.clone();
+			snapshot.generateFoodTicksLeft = generateFoodTicksLeft;
+			snapshot.ticks = ticks;
+			snapshot.winner = winner;
+			snapshot.paused = paused;
+			snapshot.randomState = random.getState();
+			return snapshot;
 		}
-		
-		public void run() {
-			if (paused) return;
-			int res = revive(player);
-			listener.refresh();
-			if (res == -1) {
-				listener.finish(1 - player);
-				pause();
+	}
+	
+	// go back to a snapshot taken from this game (only the snake and food cells of the grid are rewritten)
+	public void restore(GameSnapshot snapshot) {
+		if (snapshot.game != this)
+			throw new IllegalArgumentException("The snapshot was taken from another game.");
+		synchronized (this) {
+			synchronized (grid) {
+				for (int i = 0; i < numPlayers; ++i)
+					paintSnake(i, EMPTY);
+				for (Point food : foods)
+					grid.set(food.x, food.y, EMPTY);
+				for (int i = 0; i < numPlayers; ++i)
+					snakes[i] = new Snake(snapshot.snakes[i]);
+				foods = snapshot.foods;
+				foodsShared = true;
+				for (Point food : foods)
+					grid.set(food.x, food.y, FOOD);
+				for (int i = 0; i < numPlayers; ++i)
+					paintSnake(i, i + 1);
 			}
-			else
-				listener.revive(player);
+			System.arraycopy(snapshot.numSnakes, 0, numSnakes, 0, numPlayers);
+			System.arraycopy(snapshot.score, 0, score, 0, numPlayers);
+			System.arraycopy(snapshot.deathCause, 0, deathCause, 0, numPlayers);
+			System.arraycopy(snapshot.driving, 0, driving, 0, numPlayers);
+			System.arraycopy(snapshot.reviveTicksLeft, 0, reviveTicksLeft, 0, numPlayers);
+			System.arraycopy(snapshot.unkennelTicksLeft, 0, unkennelTicksLeft, 0, numPlayers);
+			generateFoodTicksLeft = snapshot.generateFoodTicksLeft;
+			ticks = snapshot.ticks;
+			winner = snapshot.winner;
+			paused = snapshot.paused;
+			random.setState(snapshot.randomState);
+			events.clear();
+			checkGrid();
 		}
 	}
 	
-	// timer task to unkennel a snake
-	class UnkennelSnakeTask extends TimerTask {
-		private int player;
-		
-		public UnkennelSnakeTask(int player) {
-			this.player = player;
-		}
-		
-		public void run() {
-			if (paused) return;
-			startFromHole(player);
-		}
+	// the number of players
+	public int getNumPlayers() {
+		return numPlayers;
 	}
 	
-	// timer snake to generate a new food
-	class GenerateFoodTask extends TimerTask {
-		public void run() {
-			if (paused) return;
-			try {
-				generateFoods(NUM_FOODS);
-			} catch (NoEnoughSpaceException e) {
-				System.out.println(e);
+	// a player has no snakes left, and the game finishes when at most one player is left
+	private void eliminate(int player) {
+		numSnakes[player] = -1;
+		events.add(GameEvents.PLAYER_ELIMINATED, player, 0, 0);
+		int remaining = 0, winner = player;
+		for (int i = 0; i < numPlayers; ++i)
+			if (numSnakes[i] >= 0) {
+				remaining++;
+				winner = i;
 			}
-			listener.refresh();
+		if (remaining <= 1)
+			finish(winner);
+	}
+	
+	// finish the game (the game is paused so that nothing moves any more)
+	private void finish(int winner) {
+		this.winner = winner;
+		events.add(GameEvents.GAME_FINISHED, winner, 0, 0);
+		listener.finish(winner);
+		pause();
+	}
+	
+	// revive a snake when its revival delay is over
+	private void reviveSnake(int player) {
+		int res = revive(player);
+		listener.refresh();
+		if (res == -1) 
+			eliminate(player);
+		else
+			listener.revive(player);
+	}
+	
+	// generate new foods when the food delay is over
+	private void regenerateFoods() {
+		try {
+			generateFoods(numFoods);
+		} catch (NoEnoughSpaceException e) {
+			System.out.println(e);
 		}
+		listener.refresh();
 	}
 }
@@ -0,0 +1,78 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+
+// monotonic clock of a game (based on System.nanoTime(), so that it does not jump with the wall 
+// clock), which stands still while the game is paused; it also measures how late the ticks are
+public class GameClock {
+	private long origin = System.nanoTime();
+	// total time spent paused, and when the current pause started
+	private long pausedNanos = 0;
+	private long pausedAt;
+	private boolean paused = false;
+	
+	// lateness of the ticks in nanoseconds
+	private long numTicks = 0;
+	private long totalJitter = 0;
+	private long maxJitter = 0;
+	
+	// game time in nanoseconds
+	public synchronized long now() {
+		return (paused ? pausedAt : System.nanoTime()) - origin - pausedNanos;
+	}
+	
+	// stop the clock
+	public synchronized void pause() {
+		if (paused) return;
+		pausedAt = System.nanoTime();
+		paused = true;
+	}
+	
+	// restart the clock from where it stopped
+	public synchronized void resume() {
+		if (!paused) return;
+		pausedNanos += System.nanoTime() - pausedAt;
+		paused = false;
+	}
+	
+	public synchronized boolean isPaused() {
+		return paused;
+	}
+	
+	// record a tick that was due at some game time
+	public synchronized void recordTick(long deadline) {
+		long jitter = Math.max(0, now() - deadline);
+		numTicks++;
+		totalJitter += jitter;
+		maxJitter = Math.max(maxJitter, jitter);
+	}
+	
+	// number of ticks recorded
+	public synchronized long getNumTicks() {
+		return numTicks;
+	}
+	
+	// mean lateness of the ticks in nanoseconds
+	public synchronized long getMeanJitter() {
+		return numTicks > 0 ? totalJitter / numTicks : 0;
+	}
+	
+	// largest lateness of a tick in nanoseconds
+	public synchronized long getMaxJitter() {
+		return maxJitter;
+	}
+}
@@ -0,0 +1,105 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+
+// the changes made to a game during a tick, in the order they happened
+// (each event is packed as four ints: type, player, and two arguments, in an array that is 
+// reused from tick to tick so that recording events allocates nothing once it is large enough)
+public class GameEvents {
+	// the head has moved to cell a (encoded, the part inside a hole included), and b is the 
+	// direction of the snake, with MOVE_GREW and MOVE_GOING_IN added as flags
+	public static final int HEAD_MOVED = 0;
+	// the tail has left cell a (not sent while the tail is still inside a hole)
+	public static final int TAIL_REMOVED = 1;
+	// the food at cell a has been eaten by the player
+	public static final int FOOD_EATEN = 2;
+	// a food has appeared at cell a (the player is -1)
+	public static final int FOOD_SPAWNED = 3;
+	// the snake has died facing direction a (it may have just turned), and b is the cause of 
+	// death (Game.DEATH_*)
+	public static final int SNAKE_DIED = 4;
+	// the player has got a new snake of length b, with a snakes left
+	public static final int SNAKE_REVIVED = 5;
+	// the head has gone into the hole at cell a
+	public static final int ENTERED_HOLE = 6;
+	// the snake has been put inside the hole at cell a, to come out of it in direction b
+	public static final int LEAVING_HOLE = 7;
+	// the score of the player is now a
+	public static final int SCORE_CHANGED = 8;
+	// the player has no snakes left
+	public static final int PLAYER_ELIMINATED = 9;
+	// the game has finished, and the winner is the player
+	public static final int GAME_FINISHED = 10;
+	
+	public static final int MOVE_DIRECTION = 3;
+	public static final int MOVE_GREW = 4;
+	public static final int MOVE_GOING_IN = 8;
+	
+	private static final int INTS_PER_EVENT = 4;
+	
+	private int[] data = new int[64 * INTS_PER_EVENT];
+	private int size = 0;
+	
+	// record an event
+	public void add(int type, int player, int a, int b) {
+		if ((size + 1) * INTS_PER_EVENT > data.length) {
+			int[] _data = data;
+			data = new int[_data.length * 2];
+			System.arraycopy(_data, 0, data, 0, size * INTS_PER_EVENT);
+		}
+		int k = size * INTS_PER_EVENT;
+		data[k] = type;
+		data[k + 1] = player;
+		data[k + 2] = a;
+		data[k + 3] = b;
+		size++;
+	}
+	
+	// forget all events (at the start of a tick)
+	public void clear() {
+		size = 0;
+	}
+	
+	// number of events
+	public int size() {
+		return size;
+	}
+	
+	public int getType(int i) {
+		return data[i * INTS_PER_EVENT];
+	}
+	
+	public int getPlayer(int i) {
+		return data[i * INTS_PER_EVENT + 1];
+	}
+	
+	public int getA(int i) {
+		return data[i * INTS_PER_EVENT + 2];
+	}
+	
+	public int getB(int i) {
+		return data[i * INTS_PER_EVENT + 3];
+	}
+	
+	// readable form of an event (for debugging)
+	public String toString(int i) {
+		String[] names = {"HEAD_MOVED", "TAIL_REMOVED", "FOOD_EATEN", "FOOD_SPAWNED", "SNAKE_DIED", 
+			"SNAKE_REVIVED", "ENTERED_HOLE", "LEAVING_HOLE", "SCORE_CHANGED", "PLAYER_ELIMINATED", 
+			"GAME_FINISHED"};
+		return names[getType(i)] + "(" + getPlayer(i) + ", " + getA(i) + ", " + getB(i) + ")";
+	}
+}
@@ -0,0 +1,85 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+import utils.TimingWheel;
+import utils.WheelTask;
+
+// fixed-timestep loop that advances a game by one tick per period of its clock (so that pauses 
+// are not counted), run by the timing wheel shared by all the games (instead of a thread per game)
+class GameLoop extends WheelTask {
+	// a late loop runs at most this many ticks back to back before giving up on the lost time
+	private static final int MAX_CATCH_UP_TICKS = 5;
+	
+	private Game game;
+	private GameClock clock;
+	private long period;
+	// game time the next tick is due at
+	private long deadline;
+	private boolean armed = false, closed = false;
+	
+	public GameLoop(Game game, GameClock clock, long periodMillis) {
+		this.game = game;
+		this.clock = clock;
+		this.period = periodMillis * 1000000L;
+	}
+	
+	public void run() {
+		synchronized (this) {
+			if (closed || clock.isPaused()) {
+				armed = false;
+				return;
+			}
+			clock.recordTick(deadline);
+			long now = clock.now();
+			deadline += period;
+			if (now - deadline > MAX_CATCH_UP_TICKS * period)
+				deadline = now + period;
+			arm(deadline - now);
+		}
+		game.tick();
+	}
+	
+	// schedule the next tick after some game time (rounded up to the milliseconds of the wheel)
+	private void arm(long delay) {
+		armed = true;
+		TimingWheel.shared.schedule(this, Math.max(0, (delay + 999999) / 1000000));
+	}
+	
+	// start the loop
+	public synchronized void start() {
+		deadline = clock.now() + period;
+		arm(period);
+	}
+	
+	// stop ticking while the game is paused
+	public synchronized void pause() {
+		cancel();
+		armed = false;
+	}
+	
+	// go on after a pause, with the next tick due after what was left of its period
+	public synchronized void resume() {
+		if (!armed && !closed)
+			arm(deadline - clock.now());
+	}
+	
+	// stop the loop
+	public synchronized void close() {
+		closed = true;
+		cancel();
+	}
+}
@@ -0,0 +1,39 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+
+// settings of a game (delays are in milliseconds and are counted in ticks of driveSnakeDelay)
+public class GameSettings {
+	public int size = 25;
+	public int numPlayers = 2;
+	public int level = 0;
+	public int numSnakes = 3;
+	public int numFoods = Game.NUM_FOODS;
+	public int driveSnakeDelay = 200;
+	public int reviveSnakeDelay = Game.REVIVE_SNAKE_DELAY;
+	public int unkennelSnakeDelay = 2000;
+	public int generateFoodDelay = 2000;
+	
+	public GameSettings() {}
+	
+	public GameSettings(int size, int level, int numSnakes, int driveSnakeDelay) {
+		this.size = size;
+		this.level = level;
+		this.numSnakes = numSnakes;
+		this.driveSnakeDelay = driveSnakeDelay;
+	}
+}
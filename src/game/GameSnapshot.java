@@ -0,0 +1,39 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+import java.util.ArrayList;
+
+// copy of the dynamic state of a game (the walls and holes never change, so they are shared with the game,
+// and so are the snake bodies and the foods until the game changes them)
+public class GameSnapshot {
+	Game game;
+	Snake[] snakes;
+	ArrayList<Point> foods;
+	int[] numSnakes, score, deathCause;
+	boolean[] driving;
+	int[] reviveTicksLeft, unkennelTicksLeft;
+	int generateFoodTicksLeft;
+	long ticks;
+	int winner;
+	boolean paused;
+	long randomState;
+	
+	// tick at which the snapshot was taken
+	public long getTicks() {
+		return ticks;
+	}
+}
@@ -0,0 +1,95 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+import java.util.Random;
+
+// game grid indexed by y * size + x, with a byte per cell 
+// (cells hold Game.EMPTY/FOOD/HOLE/WALL, or player + 1 for a snake cell)
+public abstract class Grid {
+	// boards larger than this are stored in lazily allocated tiles
+	public static final int MAX_FLAT_SIZE = 128;
+	
+	protected int size;
+	
+	protected Grid(int size) {
+		this.size = size;
+	}
+	
+	// create a grid suited to the board size
+	public static Grid create(int size) {
+		if (size > MAX_FLAT_SIZE)
+			return new ChunkedGrid(size);
+		return new FlatGrid(size);
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	// whether (x, y) is inside the grid
+	public boolean contains(int x, int y) {
+		return x >= 0 && y >= 0 && x < size && y < size;
+	}
+
+	public int index(int x, int y) {
+		return y * size + x;
+	}
+
+	public int get(int index) {
+		return get(index % size, index / size);
+	}
+
+	public void set(int index, int value) {
+		set(index % size, index / size, value);
+	}
+
+	public abstract int get(int x, int y);
+
+	public abstract void set(int x, int y, int value);
+
+	// reset every cell to Game.EMPTY
+	public abstract void clear();
+	
+	// whether the grid is mostly empty and too large to be scanned cell by cell
+	public abstract boolean isSparse();
+	
+	// side length of the square tiles the grid is made of
+	public abstract int getTileSize();
+	
+	// whether every cell of the tile containing (x, y) is empty
+	public abstract boolean isEmptyTile(int x, int y);
+	
+	// number of empty cells
+	public abstract int getNumEmpty();
+	
+	// index of an empty cell chosen uniformly at random, or -1 if there is none
+	public abstract int randomEmptyCell(Random random);
+	
+	// number of empty cells met when going straight from (x, y) in some direction (not counting 
+	// (x, y) itself), counted up to cap only
+	public int freeDistance(int x, int y, int direction, int cap) {
+		int d = 0;
+		x += Direction.dx[direction];
+		y += Direction.dy[direction];
+		while (d < cap && contains(x, y) && get(x, y) == Game.EMPTY) {
+			x += Direction.dx[direction];
+			y += Direction.dy[direction];
+			d++;
+		}
+		return d;
+	}
+}
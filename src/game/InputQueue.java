@@ -0,0 +1,61 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+import java.util.concurrent.atomic.AtomicLong;
+
+// bounded lock-free queue of input commands written by one thread (the player's connection) 
+// and read by another (the game loop)
+class InputQueue {
+	public static final int NONE = 0;
+	
+	private int[] commands;
+	private int mask;
+	private AtomicLong head = new AtomicLong(); // next command to read
+	private AtomicLong tail = new AtomicLong(); // next slot to write
+	
+	// the capacity is rounded up to a power of two
+	public InputQueue(int capacity) {
+		int n = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		commands = new int[n];
+		mask = n - 1;
+	}
+	
+	// add a command, or drop it and return false when the queue is full (producer side)
+	public boolean offer(int command) {
+		long t = tail.get();
+		if (t - head.get() == commands.length)
+			return false;
+		commands[(int) t & mask] = command;
+		tail.lazySet(t + 1);
+		return true;
+	}
+	
+	// take the oldest command, or NONE when the queue is empty (consumer side)
+	public int poll() {
+		long h = head.get();
+		if (h == tail.get())
+			return NONE;
+		int command = commands[(int) h & mask];
+		head.lazySet(h + 1);
+		return command;
+	}
+	
+	// drop all the pending commands (consumer side)
+	public void clear() {
+		head.lazySet(tail.get());
+	}
+}
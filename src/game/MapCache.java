@@ -0,0 +1,95 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// cache of generated map layouts keyed by (size, level, seed), kept in memory (the most 
+// recently used ones) and in files of a directory
+public class MapCache {
+	public static final int DEFAULT_CAPACITY = 64;
+	private String directory;
+	private LinkedHashMap<String, MapLayout> layouts;
+	
+	// a cache in memory only
+	public MapCache() {
+		this(null);
+	}
+	
+	public MapCache(String directory) {
+		this(directory, DEFAULT_CAPACITY);
+	}
+	
+	public MapCache(String directory, int capacity) {
+		this.directory = directory;
+		layouts = new LinkedHashMap<String, MapLayout>(16, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<String, MapLayout> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	private static String key(int size, int level, long seed) {
+		return size + "_" + level + "_" + seed;
+	}
+	
+	// get a layout, or null if it has not been generated yet
+	public synchronized MapLayout get(int size, int level, long seed) {
+		String key = key(size, level, seed);
+		MapLayout layout = layouts.get(key);
+		if (layout == null && directory != null) {
+			layout = read(new File(directory, key + ".map"));
+			if (layout != null)
+				layouts.put(key, layout);
+		}
+		return layout;
+	}
+	
+	// add a layout
+	public synchronized void put(MapLayout layout) {
+		String key = key(layout.size, layout.level, layout.seed);
+		layouts.put(key, layout);
+		if (directory != null) {
+			new File(directory).mkdirs();
+			write(new File(directory, key + ".map"), layout);
+		}
+	}
+	
+	// read a layout from a local file
+	private MapLayout read(File file) {
+		if (!file.exists()) return null;
+		try {
+			DataInputStream input = new DataInputStream(new FileInputStream(file));
+			byte[] packed = new byte[(int) file.length()];
+			input.readFully(packed);
+			input.close();
+			return new MapLayout(packed);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	// write a layout to a local file
+	private void write(File file, MapLayout layout) {
+		try {
+			FileOutputStream output = new FileOutputStream(file);
+			output.write(layout.pack());
+			output.close();
+		} catch (IOException e) {}
+	}
+}
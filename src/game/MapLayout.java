@@ -0,0 +1,82 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+// generated walls and holes of a map, with the state of the random generator right after 
+// generating them, so that a game started from the layout goes on exactly like a freshly 
+// generated one
+public class MapLayout {
+	public int size, level;
+	public long seed;
+	ArrayList<Wall> walls;
+	ArrayList<Point> holes;
+	long randomState;
+	
+	MapLayout(int size, int level, long seed, ArrayList<Wall> walls, ArrayList<Point> holes, long randomState) {
+		this.size = size;
+		this.level = level;
+		this.seed = seed;
+		this.walls = new ArrayList<Wall>(walls);
+		this.holes = new ArrayList<Point>(holes);
+		this.randomState = randomState;
+	}
+	
+	// decode from a packed layout (2 bytes per coordinate, 7 bytes per wall and 4 per hole)
+	public MapLayout(byte[] packed) {
+		ByteBuffer buffer = ByteBuffer.wrap(packed);
+		size = buffer.getInt();
+		level = buffer.getInt();
+		seed = buffer.getLong();
+		randomState = buffer.getLong();
+		int numWalls = buffer.getInt();
+		walls = new ArrayList<Wall>(numWalls);
+		for (int i = 0; i < numWalls; ++i) {
+			int x = buffer.getShort(), y = buffer.getShort(), length = buffer.getShort();
+			walls.add(new Wall(x, y, length, Wall.Direction.values()[buffer.get()]));
+		}
+		int numHoles = buffer.getInt();
+		holes = new ArrayList<Point>(numHoles);
+		for (int i = 0; i < numHoles; ++i) {
+			int x = buffer.getShort(), y = buffer.getShort();
+			holes.add(new Point(x, y));
+		}
+	}
+	
+	// encode the layout
+	public byte[] pack() {
+		ByteBuffer buffer = ByteBuffer.allocate(32 + walls.size() * 7 + holes.size() * 4);
+		buffer.putInt(size);
+		buffer.putInt(level);
+		buffer.putLong(seed);
+		buffer.putLong(randomState);
+		buffer.putInt(walls.size());
+		for (Wall wall : walls) {
+			buffer.putShort((short) wall.x);
+			buffer.putShort((short) wall.y);
+			buffer.putShort((short) wall.length);
+			buffer.put((byte) wall.direction.ordinal());
+		}
+		buffer.putInt(holes.size());
+		for (Point hole : holes) {
+			buffer.putShort((short) hole.x);
+			buffer.putShort((short) hole.y);
+		}
+		return buffer.array();
+	}
+}
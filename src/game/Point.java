@@ -32,10 +32,29 @@ public class Point {
 		y = buffer.getInt();
 	}
 	
-	public boolean equals(Point p) {
+	public boolean equals(Object o) {
+		if (!(o instanceof Point)) return false;
+		Point p = (Point) o;
 		return x == p.x && y == p.y;
 	}
 	
+	public int hashCode() {
+		return encode(x, y);
+	}
+	
+	// encode a point into a single int (16 bits for each signed coordinate)
+	public static int encode(int x, int y) {
+		return (x << 16) | (y & 0xFFFF);
+	}
+	
+	public static int decodeX(int encoded) {
+		return encoded >> 16;
+	}
+	
+	public static int decodeY(int encoded) {
+		return (short) encoded;
+	}
+	
 	public byte[] pack() {
 		ByteBuffer buffer = ByteBuffer.allocate(3 * 4);
 		buffer.putInt(buffer.capacity() - 4);
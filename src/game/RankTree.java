@@ -0,0 +1,60 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package game;
+
+// counts of the items in numbered buckets (a Fenwick tree), to find in O(log n) the bucket 
+// holding the k-th item when the items are ranked by bucket
+class RankTree {
+	private int[] tree;
+	private int highBit;
+	
+	public RankTree(int numBuckets) {
+		tree = new int[numBuckets + 1];
+		highBit = Integer.highestOneBit(numBuckets);
+	}
+	
+	// add delta items to bucket i
+	public void add(int i, int delta) {
+		for (++i; i < tree.length; i += i & -i)
+			tree[i] += delta;
+	}
+	
+	// number of items in the buckets before bucket i
+	public int countBefore(int i) {
+		int count = 0;
+		for (; i > 0; i -= i & -i)
+			count += tree[i];
+		return count;
+	}
+	
+	// bucket holding the k-th item (counted from 0, k must be less than the number of items)
+	public int find(int k) {
+		int i = 0;
+		for (int step = highBit; step > 0; step >>= 1)
+			if (i + step < tree.length && tree[i + step] <= k) {
+				i += step;
+				k -= tree[i];
+			}
+		return i;
+	}
+	
+	// empty every bucket
+	public void clear() {
+		for (int i = 0; i < tree.length; ++i)
+			tree[i] = 0;
+	}
+}
@@ -21,22 +21,53 @@ import game.Direction;
 
 // snake
 public class Snake {
-	public ArrayList<Point> body = new ArrayList<Point>();
+	// the cells are appended to a log, oldest first, and the body is its last length cells up to 
+	// body.cells[headPos] (the overall head); copies of a snake share the log, and only the holder 
+	// at the end of the log may append to it, the others copy their own cells first
+	private Log body;
+	private int headPos = -1;
+	private int length = 0;
 	public boolean alive = false;
 	public int direction;
 	public int first, last;
 	
+	// log of cells shared by the copies of a snake
+	private static class Log {
+		int[] cells;
+		// number of cells written
+		int top = 0;
+		// whether another snake may read the log
+		boolean shared = false;
+		
+		Log(int capacity) {
+			cells = new int[Math.max(32, capacity)];
+		}
+	}
+	
 	public Snake(SnakeSegment segment) {
 		int dx = Direction.dx[segment.direction];
 		int dy = Direction.dy[segment.direction];
+		allocate(segment.length);
 		for (int i = 0; i < segment.length; ++i) 
-			body.add(new Point(segment.x + dx * i, segment.y + dy * i));
+			set(i, Point.encode(segment.x + dx * i, segment.y + dy * i));
 		first = 0;
-		last = body.size();
+		last = length;
 		direction = Direction.opposite(segment.direction);
 		alive = true;
 	}
 	
+	// copy a snake (in O(1), the log is shared until one of them moves)
+	public Snake(Snake snake) {
+		body = snake.body;
+		body.shared = true;
+		headPos = snake.headPos;
+		length = snake.length;
+		alive = snake.alive;
+		direction = snake.direction;
+		first = snake.first;
+		last = snake.last;
+	}
+	
 	// decode the snake from a packed one 
 	public Snake(byte[] packed) {
 		ByteBuffer buffer = ByteBuffer.wrap(packed);
@@ -45,41 +76,119 @@ public class Snake {
 		first = buffer.getInt();
 		last = buffer.getInt();
 		int bodySize = buffer.getInt();
+		allocate(bodySize);
 		for (int i = 0; i < bodySize; ++i)
-			body.add(new Point(buffer.getInt(), buffer.getInt()));
+			set(i, Point.encode(buffer.getInt(), buffer.getInt()));
 	}	
 	
+	// start a log of its own with room for the snake to move and grow
+	private void allocate(int length) {
+		if (body == null || body.shared || 2 * (length + 1) > body.cells.length)
+			body = new Log(2 * (length + 1));
+		this.length = length;
+		headPos = length - 1;
+		body.top = length;
+	}
+	
+	// set the i-th cell of a body that has just been allocated
+	private void set(int i, int p) {
+		body.cells[headPos - i] = p;
+	}
+	
+	// make room after the head, and get the log to itself if it is not at the end of a shared one
+	// (the cells are moved to the start of the log, in place unless some copy may read them, and 
+	// the log is kept at least twice as long as the body, so that a steady move allocates nothing)
+	private void reserve() {
+		Log log = body;
+		int capacity = 2 * (length + 1);
+		if (headPos + 1 == log.top && headPos + 1 < log.cells.length && capacity <= log.cells.length)
+			return;
+		if (capacity > log.cells.length)
+			body = new Log(Math.max(2 * log.cells.length, capacity));
+		else if (log.shared) 
+			body = new Log(log.cells.length);
+		System.arraycopy(log.cells, headPos - length + 1, body.cells, 0, length);
+		headPos = length - 1;
+		body.top = length;
+	}
+	
+	private void pushHead(int p) {
+		reserve();
+		body.cells[++headPos] = p;
+		body.top = headPos + 1;
+		length++;
+	}
+	
+	private void popTail() {
+		length--;
+	}
+	
 	// length
 	public int length() {
-		return body.size();
+		return length;
+	}
+	
+	// the i-th cell of the body (encoded, the part inside the hole is included)
+	public int get(int i) {
+		return body.cells[headPos - i];
+	}
+	
+	public int getX(int i) {
+		return Point.decodeX(get(i));
+	}
+	
+	public int getY(int i) {
+		return Point.decodeY(get(i));
 	}
 	
 	// head (the part inside the hole is excluded)
 	public Point head() {
-		return body.get(first);
+		return new Point(getX(first), getY(first));
+	}
+	
+	// head, encoded (used by the game so that a tick allocates nothing)
+	public int headCell() {
+		return get(first);
 	}
 
 	// next head when the snake moves forward (the part inside the hole is excluded)
 	public Point nextHead() {
-		return new Point(head().x + Direction.dx[direction], head().y + Direction.dy[direction]);
+		return new Point(Point.decodeX(nextHeadCell()), Point.decodeY(nextHeadCell()));
+	}
+	
+	// next head, encoded
+	public int nextHeadCell() {
+		return Point.encode(getX(first) + Direction.dx[direction], getY(first) + Direction.dy[direction]);
 	}
 	
 	// next head when the snake moves forward (the part inside the hole is included)
-	private Point nextHeadOverall() {
-		return new Point(body.get(0).x + Direction.dx[direction], body.get(0).y + Direction.dy[direction]);
+	private int nextHeadOverall() {
+		return Point.encode(getX(0) + Direction.dx[direction], getY(0) + Direction.dy[direction]);
 	}
 	
 	// move the snake forward
 	public void next(boolean hasFood, boolean goingIn) {
-		body.add(0, nextHeadOverall());
+		pushHead(nextHeadOverall());
 		if (goingIn) first++;
 		if (!hasFood) {
-			body.remove(body.size() - 1);
-			if (last < body.size())
+			popTail();
+			if (last < length)
 				last++;
 		}
-		else
+		else {
 			last++;
+			// the room for the longer body is made now rather than by a later move
+			reserve();
+		}
+	}
+	
+	// put the whole snake inside a hole, ready to go out in the given direction
+	public void placeAtHole(int x, int y, int direction) {
+		first = last = 0;
+		this.direction = direction;
+		allocate(length);
+		for (int i = 0; i < length; ++i)
+			set(i, Point.encode(x - i * Direction.dx[direction], y - i * Direction.dy[direction]));
 	}
 	
 	// turn the snake
@@ -94,29 +203,18 @@ public class Snake {
 	
 	// encode the snake
 	public byte[] pack() {
-		ByteBuffer buffer = ByteBuffer.allocate((6 + body.size() * 2) * 4);
+		ByteBuffer buffer = ByteBuffer.allocate((6 + length * 2) * 4);
 		buffer.putInt(buffer.capacity() - 4);
 		buffer.putInt(alive ? 1 : 0);
 		buffer.putInt(direction);
 		buffer.putInt(first);
 		buffer.putInt(last);
-		buffer.putInt(body.size());
-		for (Point p : body) {
-			buffer.putInt(p.x);
-			buffer.putInt(p.y);
+		buffer.putInt(length);
+		for (int i = 0; i < length; ++i) {
+			buffer.putInt(getX(i));
+			buffer.putInt(getY(i));
 		}
 		return buffer.array();
 	}
 	
 }
-
-// snake segment
-class SnakeSegment {
-	int x, y, direction, length;
-	public SnakeSegment(int x, int y, int direction, int length) {
-		this.x = x;
-		this.y = y;
-		this.direction = direction;
-		this.length = length;
-	}
-}
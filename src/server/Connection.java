@@ -0,0 +1,123 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package server;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+
+// non-blocking connection served by a network loop: messages to send are queued and written 
+// whenever the socket is ready, and the bytes received are kept until whole messages have arrived
+public class Connection {
+	private static final int INITIAL_INPUT_CAPACITY = 4096;
+	// a message longer than this is taken as garbage, and the connection is closed
+	public static final int MAX_INPUT_CAPACITY = 65536;
+	// bytes that may wait to be written before the client is taken as gone, and the connection closed
+	public static final int MAX_QUEUED_BYTES = 1 << 20;
+	
+	SocketChannel channel;
+	SelectionKey key;
+	ConnectionListener listener;
+	private NetLoop loop;
+	// bytes received and not consumed yet
+	ByteBuffer input = ByteBuffer.allocate(INITIAL_INPUT_CAPACITY);
+	// buffers waiting to be written (guarded by the connection)
+	private ArrayDeque<ByteBuffer> output = new ArrayDeque<ByteBuffer>();
+	private long queuedBytes = 0;
+	// whether the connection is queued for the loop to write
+	boolean flushing = false;
+	private boolean closed = false;
+	private long bytesSent = 0;
+	
+	Connection(NetLoop loop, SocketChannel channel, ConnectionListener listener) {
+		this.loop = loop;
+		this.channel = channel;
+		this.listener = listener;
+	}
+	
+	// queue buffers to be sent (they are read from their position to their limit, and must not 
+	// be changed afterwards; several connections may send the same bytes through their own buffers)
+	// a client that does not read what it is sent is dropped once MAX_QUEUED_BYTES are waiting
+	public void send(ByteBuffer... buffers) {
+		synchronized (this) {
+			if (closed || queuedBytes > MAX_QUEUED_BYTES) return;
+			for (ByteBuffer buffer : buffers) {
+				output.add(buffer);
+				queuedBytes += buffer.remaining();
+			}
+			if (queuedBytes > MAX_QUEUED_BYTES) {
+				output.clear();
+				loop.abort(this, new IOException("The client does not read what it is sent"));
+				return;
+			}
+			if (flushing) return;
+			flushing = true;
+		}
+		loop.flush(this);
+	}
+	
+	// write what the socket accepts without blocking, and return whether everything has been written
+	synchronized boolean write() throws IOException {
+		while (!output.isEmpty()) {
+			ByteBuffer buffer = output.peek();
+			int n = channel.write(buffer);
+			bytesSent += n;
+			queuedBytes -= n;
+			if (buffer.hasRemaining())
+				return false;
+			output.poll();
+		}
+		flushing = false;
+		return true;
+	}
+	
+	// make room for more bytes to be received
+	void growInput() throws IOException {
+		if (input.capacity() >= MAX_INPUT_CAPACITY)
+			throw new IOException("Message too long");
+		ByteBuffer _input = input;
+		input = ByteBuffer.allocate(_input.capacity() * 2);
+		_input.flip();
+		input.put(_input);
+	}
+	
+	// close the connection (what has not been sent yet is dropped)
+	public void close() {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+			output.clear();
+		}
+		try { channel.close(); } catch (IOException e) {}
+		loop.wakeup();
+	}
+	
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+	
+	// bytes waiting to be written
+	public synchronized long getQueuedBytes() {
+		return queuedBytes;
+	}
+	
+	// bytes written to the socket so far
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+}
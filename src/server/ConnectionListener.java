@@ -0,0 +1,27 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package server;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// connection listener interface (called by the network loop)
+public interface ConnectionListener {
+	// consume the whole messages at the start of the received bytes (the rest is kept until more 
+	// bytes arrive)
+	public void receive(Connection connection, ByteBuffer input);
+	public void disconnect(Connection connection, IOException e);
+}
@@ -18,5 +18,5 @@ package server;
 
 // information types from the server
 public enum InformationServer {
-	CONNECTED, ENTER, COUNTDOWN, START, REFRESH, DIE, REVIVE, MESSAGE, PAUSE, RESUME, FINISH, RANKLIST
+	CONNECTED, ENTER, COUNTDOWN, START, REFRESH, DIE, REVIVE, MESSAGE, PAUSE, RESUME, FINISH, RANKLIST, DELTA, MAP
 }
@@ -0,0 +1,132 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package server;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import game.Game;
+import game.GameSettings;
+import game.MapCache;
+
+// pool of ready-to-play games generated by a background thread, so that a match starts (or 
+// restarts) without waiting for the map generation; the number of games kept ready follows the 
+// demand: it grows when a game is asked for and none is ready, and shrinks when they pile up
+public class MapPool {
+	public static final int DEFAULT_CAPACITY = 2;
+	public static final int MAX_CAPACITY = 32;
+	// maps tried before giving up on a game that cannot be fully generated
+	private static final int MAX_ATTEMPTS = 10;
+	
+	private GameSettings settings;
+	private Long seed;
+	private MapCache maps;
+	// games ready, and the listeners waiting for one (guarded by the pool)
+	private ArrayDeque<Game> ready = new ArrayDeque<Game>();
+	private ArrayDeque<PoolListener> waiting = new ArrayDeque<PoolListener>();
+	private int minCapacity, capacity;
+	private Random random = new Random();
+	private Thread worker;
+	private volatile boolean closed = false;
+	
+	public MapPool(GameSettings settings, Long seed, MapCache maps) {
+		this(settings, seed, maps, DEFAULT_CAPACITY);
+	}
+	
+	// games are created with the given seed, or with random seeds if it is null
+	public MapPool(GameSettings settings, Long seed, MapCache maps, int capacity) {
+		this.settings = settings;
+		this.seed = seed;
+		this.maps = maps;
+		this.minCapacity = this.capacity = capacity;
+		worker = new Thread() {
+			public void run() {
+				try {
+					while (true) {
+						synchronized (MapPool.this) {
+							while (!closed && waiting.isEmpty() && ready.size() >= MapPool.this.capacity)
+								MapPool.this.wait();
+						}
+						if (closed) return;
+						give(generate());
+					}
+				} catch (InterruptedException e) {}
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+	
+	// take a ready game, or wait for the next one to be generated (the listener is then called 
+	// by the thread of the pool, and the caller never waits for the generation)
+	public void take(PoolListener listener) {
+		Game game;
+		synchronized (this) {
+			game = ready.poll();
+			if (game == null) {
+				waiting.add(listener);
+				capacity = Math.min(capacity + 1, MAX_CAPACITY);
+				notifyAll();
+				return;
+			}
+			// the games ready were more than needed since the last miss
+			if (ready.size() >= capacity - 1 && capacity > minCapacity)
+				capacity--;
+			notifyAll();
+		}
+		listener.ready(game);
+	}
+	
+	// number of games currently kept ready
+	public synchronized int getCapacity() {
+		return capacity;
+	}
+	
+	// stop generating games
+	public void close() {
+		closed = true;
+		worker.interrupt();
+	}
+	
+	// hand a generated game to a waiting listener, or keep it ready
+	private void give(Game game) {
+		PoolListener listener;
+		synchronized (this) {
+			listener = waiting.poll();
+			if (listener == null) {
+				ready.add(game);
+				return;
+			}
+		}
+		listener.ready(game);
+	}
+	
+	// generate a game, trying other maps when there is no enough space for everything 
+	// (unless the seed is fixed, in which case the map could only fail again); only the layouts 
+	// of a fixed seed are cached, as a random seed is hardly ever drawn again
+	private Game generate() {
+		Game game = null;
+		for (int k = 0; k < MAX_ATTEMPTS; ++k) {
+			if (seed != null)
+				game = new Game(settings, seed, maps);
+			else
+				game = new Game(settings, random.nextLong(), null);
+			if (game.isGenerated() || seed != null) 
+				break;
+		}
+		return game;
+	}
+}
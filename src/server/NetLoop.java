@@ -0,0 +1,227 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package server;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// non-blocking network loop: a single thread serves the sockets of all the servers of the process 
+// with a selector, accepting the clients, reading what they send and writing what is queued for them
+public class NetLoop {
+	// the loop shared by all the servers of the process
+	public static final NetLoop shared = new NetLoop("NetLoop");
+	
+	private String name;
+	private Selector selector;
+	private Thread thread;
+	// work handed over by the other threads (registrations, and connections with bytes to write)
+	private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private ConcurrentLinkedQueue<Connection> flushes = new ConcurrentLinkedQueue<Connection>();
+	
+	public NetLoop(String name) {
+		this.name = name;
+	}
+	
+	// open the selector and start the thread on first use
+	private synchronized void start() throws IOException {
+		if (thread != null) return;
+		selector = Selector.open();
+		thread = new Thread(name) {
+			public void run() {
+				loop();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	// accept the clients connecting to a listening channel
+	public void listen(ServerSocketChannel server, AcceptListener listener) throws IOException {
+		start();
+		server.configureBlocking(false);
+		execute(new Runnable() {
+			public void run() {
+				try {
+					server.register(selector, SelectionKey.OP_ACCEPT, listener);
+				} catch (ClosedChannelException e) {}
+			}
+		});
+	}
+	
+	// serve a connected channel
+	public Connection connect(SocketChannel channel, ConnectionListener listener) throws IOException {
+		start();
+		channel.configureBlocking(false);
+		// the messages are small and sent at every tick
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection(this, channel, listener);
+		execute(new Runnable() {
+			public void run() {
+				try {
+					connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+				} catch (ClosedChannelException e) {}
+			}
+		});
+		return connection;
+	}
+	
+	// run a task on the loop thread
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+	
+	// write the queued bytes of a connection as soon as possible
+	void flush(Connection connection) {
+		flushes.add(connection);
+		selector.wakeup();
+	}
+	
+	// close a connection from another thread as if it had failed
+	void abort(Connection connection, IOException e) {
+		execute(new Runnable() {
+			public void run() {
+				drop(connection, e);
+			}
+		});
+	}
+	
+	// let the loop notice a change (such as a closed channel)
+	void wakeup() {
+		if (selector != null)
+			selector.wakeup();
+	}
+	
+	private void loop() {
+		while (true) {
+			Runnable task;
+			while ((task = tasks.poll()) != null)
+				try {
+					task.run();
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			Connection connection;
+			while ((connection = flushes.poll()) != null)
+				try {
+					write(connection);
+				} catch (Throwable e) {
+					drop(connection, new IOException(e));
+				}
+			
+			try {
+				selector.select();
+			} catch (IOException e) {
+				e.printStackTrace();
+				continue;
+			}
+			Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+			while (iterator.hasNext()) {
+				SelectionKey key = iterator.next();
+				iterator.remove();
+				if (!key.isValid()) 
+					continue;
+				if (key.isAcceptable()) {
+					accept(key);
+					continue;
+				}
+				// whatever goes wrong with a connection only drops that one
+				connection = (Connection) key.attachment();
+				try {
+					if (key.isReadable())
+						read(connection);
+					if (key.isValid() && key.isWritable())
+						write(connection);
+				} catch (Throwable e) {
+					drop(connection, new IOException(e));
+				}
+			}
+		}
+	}
+	
+	private void accept(SelectionKey key) {
+		SocketChannel channel;
+		try {
+			channel = ((ServerSocketChannel) key.channel()).accept();
+		} catch (IOException e) {
+			return;
+		}
+		if (channel == null) return;
+		try {
+			((AcceptListener) key.attachment()).accept(channel);
+		} catch (Throwable e) {
+			e.printStackTrace();
+			try { channel.close(); } catch (IOException e1) {}
+		}
+	}
+	
+	// read what has arrived and hand the whole messages to the listener
+	private void read(Connection connection) {
+		int n;
+		try {
+			if (!connection.input.hasRemaining())
+				connection.growInput();
+			n = connection.channel.read(connection.input);
+		} catch (IOException e) {
+			drop(connection, e);
+			return;
+		}
+		if (n < 0) {
+			drop(connection, new EOFException());
+			return;
+		}
+		// a malformed message drops the connection (see the loop)
+		connection.input.flip();
+		connection.listener.receive(connection, connection.input);
+		connection.input.compact();
+	}
+	
+	// write what the socket accepts, and wait for it to be writable again if some bytes are left
+	private void write(Connection connection) {
+		SelectionKey key = connection.key;
+		if (key == null || !key.isValid() || connection.isClosed())
+			return;
+		try {
+			if (connection.write())
+				key.interestOps(SelectionKey.OP_READ);
+			else
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			drop(connection, e);
+		}
+	}
+	
+	// close a connection that has failed (the listener is only told if it was not closed on purpose)
+	private void drop(Connection connection, IOException e) {
+		boolean closed = connection.isClosed();
+		if (connection.key != null)
+			connection.key.cancel();
+		connection.close();
+		if (closed) return;
+		try {
+			connection.listener.disconnect(connection, e);
+		} catch (Throwable e1) {
+			e1.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,655 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package server;
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import client.InformationClient;
+import game.Game;
+import game.GameClock;
+import game.GameListener;
+import game.Ranklist;
+import utils.Time;
+import utils.TimingWheel;
+import utils.WheelTask;
+
+// a match hosted by the server: its game and the players in it (rooms share the network loop, 
+// the timing wheel and the map pool of the server, so that they cost no thread of their own)
+class Room {
+	private final int gameStartDelay = 5;
+	private final int pauseResumeRequestTimeoutDelay = 10000;
+	// ticks between two full game states sent to the clients (deltas are sent in between)
+	private static final int KEYFRAME_TICKS = 100;
+	// longest username and text message accepted (a longer one drops the connection)
+	private static final int MAX_USERNAME_LENGTH = 64;
+	private static final int MAX_STRING_LENGTH = 4096;
+	// bytes waiting to be sent past which a client is skipped by the refreshes until it catches up
+	private static final int MAX_LAGGING_BYTES = 65536;
+	
+	private Server server;
+	private int id;
+	private int numPlayers;
+	private Game game;
+	private SocketHandler[] socketHandler;
+	// players connected, players whose username has been received, players prepared to play, 
+	// and players connected still
+	private int numPlayersJoined = 0, numPlayersNamed = 0, numPlayersPrepared = 0, numPlayersLeft = 0;
+	private String[] username;
+	private boolean[] requestedPauseResume;
+	// tick last refreshed, and the number of its events sent so far
+	private long refreshTick = -1;
+	private int refreshedEvents = 0;
+	private long keyframeTick = 0;
+	private boolean started = false, finished = false, closed = false;
+	private long startTime;
+	
+	// the players may join before the game is ready (see setGame())
+	public Room(Server server, int id, int numPlayers) {
+		this.server = server;
+		this.id = id;
+		this.numPlayers = numPlayers;
+		socketHandler = new SocketHandler[numPlayers];
+		username = new String[numPlayers];
+		Arrays.fill(username, "PENDING...");
+		requestedPauseResume = new boolean[numPlayers];
+	}
+	
+	// the game taken from the map pool is ready (on the network loop thread, like the messages of 
+	// the players): the players who have already sent their usernames are now let in
+	public void setGame(Game game) {
+		if (closed) {
+			game.close();
+			return;
+		}
+		this.game = game;
+		display("Map seed: " + game.getSeed());
+		
+		// the game loop calls the listener on the timing wheel: the events are handed to the network 
+		// thread, except the refreshes, which must pack the tick before the next one starts (and 
+		// only touch the game, under its lock, and the refresh counters)
+		game.setListener(new GameListener() {
+			public void revive(int player) {
+				NetLoop.shared.execute(new Runnable() {
+					public void run() {
+						socketHandler[player].sendSignal(InformationServer.REVIVE);
+					}
+				});
+			}
+			
+			public void refresh() {
+				refreshAll();
+			}
+			
+			public void die(int player) {
+				NetLoop.shared.execute(new Runnable() {
+					public void run() {
+						socketHandler[player].sendSignal(InformationServer.DIE);
+					}
+				});
+			}
+			
+			public void finish(int winner) {
+				NetLoop.shared.execute(new Runnable() {
+					public void run() {
+						finishGame(winner);
+					}
+				});
+			}
+		});
+		
+		for (int i = 0; i < numPlayersJoined; ++i)
+			if (socketHandler[i].named)
+				socketHandler[i].connected();
+	}
+	
+	// whether the room waits for more players
+	public boolean isOpen() {
+		return !closed && numPlayersJoined < numPlayers;
+	}
+	
+	public boolean isStarted() {
+		return started;
+	}
+	
+	public int getNumPlayersConnected() {
+		return numPlayersLeft;
+	}
+	
+	// let a new player in
+	public void join(SocketChannel channel) throws IOException {
+		socketHandler[numPlayersJoined] = new SocketHandler(channel, numPlayersJoined);
+		numPlayersJoined++;
+		numPlayersLeft++;
+	}
+	
+	// close the room and the connections of its players
+	public void close() {
+		synchronized (this) {
+			if (closed) return;
+			closed = true;
+		}
+		if (game != null)
+			game.close();
+		for (int i = 0; i < numPlayersJoined; ++i)
+			socketHandler[i].close();
+		server.removeRoom(this);
+	}
+	
+	private void display(String message) {
+		server.display("[Room " + id + "] " + message);
+	}
+	
+	// a player has sent its username
+	private void playerJoined(int player) {
+		display(
+			"Player " + (player + 1) + 
+			" (username: " + username[player] + ") joined the game");
+		numPlayersNamed++;
+		if (numPlayersNamed == numPlayers) 
+			display("All " + numPlayers + " players have joined the game.");
+	}
+	
+	// a player is prepared, and the game starts after a countdown once all of them are
+	private void playerPrepared() {
+		numPlayersPrepared++;
+		if (numPlayersPrepared < numPlayers) return;
+		started = true;
+		
+		// send ranklist
+		for (int i = 0; i < numPlayers; ++i) 
+			socketHandler[i].sendRanklist();
+		
+		// let the players enter the game UI after all of them have joined the game
+		for (int i = 0; i < numPlayers; ++i)
+			socketHandler[i].enterGame(usernamesFrom(i));
+		
+		countdown(new Runnable() {
+			public void run() {
+				if (closed) return;
+				for (int i = 0; i < numPlayers; ++i) 
+					socketHandler[i].startGame();
+				startTime = System.nanoTime();
+				display("Game started.");
+			}
+		});
+	}
+	
+	// a player has disconnected (the room is given up when the game can no longer start, and 
+	// closed once nobody is left in it)
+	private void playerLeft(int player) {
+		numPlayersLeft--;
+		if (numPlayersLeft == 0)
+			close();
+		else if (!started && !closed) {
+			broadcastExcept(player, username[player] + " has left before the game started. Please reconnect to join another room.");
+			close();
+		}
+	}
+	
+	// show a countdown to all the players (a step per second, timed by the timing wheel), then run 
+	// a task
+	private void countdown(Runnable then) {
+		TimingWheel.shared.schedule(new RoomTask() {
+			int countdown = gameStartDelay;
+			
+			void runInRoom() {
+				if (countdown == 0) {
+					then.run();
+					return;
+				}
+				for (int i = 0; i < numPlayers; ++i) 
+					socketHandler[i].sendCountdown(countdown);
+				countdown--;
+				TimingWheel.shared.schedule(this, 1000);
+			}
+		}, 0);
+	}
+	
+	// task of the timing wheel whose body is handed to the network thread, which owns the state of 
+	// the room (cancelling it from that thread also drops a body handed over already)
+	private abstract class RoomTask extends WheelTask {
+		private boolean cancelled = false;
+		
+		public void run() {
+			NetLoop.shared.execute(new Runnable() {
+				public void run() {
+					if (!cancelled)
+						runInRoom();
+				}
+			});
+		}
+		
+		public boolean cancel() {
+			cancelled = true;
+			return super.cancel();
+		}
+		
+		// the body of the task, run on the network thread
+		abstract void runInRoom();
+	}
+	
+	// usernames of all the players from the given one onwards, in the order the game packs their snakes
+	private String[] usernamesFrom(int player) {
+		String[] usernames = new String[numPlayers];
+		for (int i = 0; i < numPlayers; ++i)
+			usernames[i] = username[(player + i) % numPlayers];
+		return usernames;
+	}
+	
+	// send a system message to every player
+	private void broadcast(String message) {
+		for (int i = 0; i < numPlayersJoined; ++i)
+			socketHandler[i].sendMessage("System", Time.getTime(), message);
+	}
+	
+	// send a system message to every player except one
+	private void broadcastExcept(int player, String message) {
+		for (int i = 0; i < numPlayersJoined; ++i)
+			if (i != player)
+				socketHandler[i].sendMessage("System", Time.getTime(), message);
+	}
+	
+	// whether every player has requested to pause or resume
+	private boolean allRequestedPauseResume() {
+		for (int i = 0; i < numPlayers; ++i)
+			if (!requestedPauseResume[i])
+				return false;
+		return true;
+	}
+	
+	// withdraw all the pause or resuming requests once they have been agreed
+	private void clearPauseResumeRequests() {
+		for (int i = 0; i < numPlayers; ++i) {
+			if (requestedPauseResume[i] && socketHandler[i].pauseResumeRequestTimeoutTask != null)
+				socketHandler[i].pauseResumeRequestTimeoutTask.cancel();
+			requestedPauseResume[i] = false;
+		}
+	}
+	
+	// refresh the states of all the clients
+	// (with the events of the tick not sent yet, or with the whole game every KEYFRAME_TICKS ticks 
+	// so that the clients resync)
+	private void refreshAll() {
+		byte[] packed, state = null;
+		boolean keyframe;
+		synchronized (game) {
+			// the game may be refreshed several times during a tick
+			if (game.getTicks() != refreshTick) {
+				refreshTick = game.getTicks();
+				refreshedEvents = 0;
+			}
+			int from = refreshedEvents;
+			refreshedEvents = game.events.size();
+			keyframe = refreshTick - keyframeTick >= KEYFRAME_TICKS;
+			if (!keyframe && from == refreshedEvents) 
+				return;
+			if (keyframe)
+				keyframeTick = refreshTick;
+			// encoded once for all the clients, which put themselves first
+			packed = keyframe ? game.packState(0) : game.packEvents(from, 0);
+			// the whole state for the clients that have caught up after some refreshes were skipped
+			if (!keyframe)
+				for (int i = 0; i < numPlayersJoined; ++i)
+					if (socketHandler[i].canResync()) {
+						state = game.packState(0);
+						break;
+					}
+		}
+		InformationServer info = keyframe ? InformationServer.REFRESH : InformationServer.DELTA;
+		for (int i = 0; i < numPlayersJoined; ++i)
+			socketHandler[i].refresh(info, packed, state);
+	}
+	
+	// finish the game
+	private void finishGame(int winner) {
+		Ranklist ranklist = server.getRanklist();
+		synchronized (ranklist) {
+			for (int i = 0; i < numPlayers; ++i)  
+				ranklist.add(username[i], game.score[i]);
+			ranklist.write(".ranklist");
+		}
+		finished = true;
+		for (int i = 0; i < numPlayersJoined; ++i) 
+			socketHandler[i].finish(i == winner ? 0 : 1);
+		
+		display("Game finished (Winner: " + username[winner] + ").");		
+		report();
+	}
+	
+	// show the metrics of the match
+	private void report() {
+		GameClock clock = game.getClock();
+		long bytesSent = 0;
+		for (int i = 0; i < numPlayersJoined; ++i)
+			bytesSent += socketHandler[i].connection.getBytesSent();
+		double duration = (System.nanoTime() - startTime) / 1e9;
+		display(String.format("Tick jitter: %.3f ms on average, %.3f ms at most (%d ticks).", 
+			clock.getMeanJitter() / 1e6, clock.getMaxJitter() / 1e6, clock.getNumTicks()));
+		display(String.format("%d bytes sent to %d players in %.1f s (%.1f kB/s).", 
+			bytesSent, numPlayers, duration, bytesSent / 1e3 / Math.max(duration, 1e-3)));
+	}
+	
+	// handler of the connection with a client (its messages are received and sent by the network 
+	// loop, so that sending never blocks the caller)
+	class SocketHandler implements ConnectionListener {
+		private Connection connection;
+		private int player;
+		private boolean disconnected = false;
+		// whether the username and the PREPARED signal have been received
+		private boolean named = false, prepared = false;
+		// whether some refreshes have not been sent, as the client was lagging
+		private boolean skipped = false;
+		WheelTask pauseResumeRequestTimeoutTask;
+		
+		public SocketHandler(SocketChannel channel, int player) throws IOException {
+			this.player = player;
+			connection = NetLoop.shared.connect(channel, this);
+		}
+		
+		// close
+		public void close() {
+			connection.close();
+		}
+		
+		// a message header: its type followed by some ints
+		private ByteBuffer header(InformationServer info, int... values) {
+			ByteBuffer buffer = ByteBuffer.allocate((1 + values.length) * 4);
+			buffer.putInt(info.ordinal());
+			for (int value : values)
+				buffer.putInt(value);
+			buffer.flip();
+			return buffer;
+		}
+		
+		// a string preceded by its length
+		private ByteBuffer string(String string) {
+			byte[] bytes = string.getBytes();
+			ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.length);
+			buffer.putInt(bytes.length);
+			buffer.put(bytes);
+			buffer.flip();
+			return buffer;
+		}
+		
+		// read a string preceded by its length, which must be at most maxLength
+		private String readString(ByteBuffer input, int maxLength) {
+			int length = input.getInt();
+			if (length < 0 || length > maxLength)
+				throw new IllegalArgumentException("Invalid string length: " + length);
+			byte[] bytes = new byte[length];
+			input.get(bytes);
+			return new String(bytes);
+		}
+		
+		// the username has been received
+		private void connected() {
+			sendMap();
+			refresh();
+			sendSignal(InformationServer.CONNECTED);
+			playerJoined(player);
+		}
+		
+		// send the walls and holes to the client (once, before any state)
+		public void sendMap() {
+			connection.send(header(InformationServer.MAP), ByteBuffer.wrap(game.packMap()));
+		}
+		
+		// send the whole dynamic state of the game to the client
+		public void refresh() {
+			refresh(InformationServer.REFRESH, game.packState(0));
+		}
+		
+		// send a packed dynamic state (REFRESH) or the changes to apply to the previous one (DELTA), 
+		// shared by all the clients and preceded by the index of this one's player
+		public void refresh(InformationServer info, byte[] packed) {
+			connection.send(header(info, player), ByteBuffer.wrap(packed));
+		}
+		
+		// send a refresh, unless too many bytes are still waiting to be sent to the client: the 
+		// refreshes are then skipped until it has caught up, and the whole state (given when some 
+		// client can be resynchronized) is sent instead of the next delta
+		public void refresh(InformationServer info, byte[] packed, byte[] state) {
+			if (isLagging()) {
+				skipped = true;
+				return;
+			}
+			if (skipped && info == InformationServer.DELTA) {
+				if (state == null) return;
+				info = InformationServer.REFRESH;
+				packed = state;
+			}
+			skipped = false;
+			refresh(info, packed);
+		}
+		
+		private boolean isLagging() {
+			return connection.getQueuedBytes() > MAX_LAGGING_BYTES;
+		}
+		
+		// whether refreshes have been skipped, and the client could now be sent the whole state
+		boolean canResync() {
+			return skipped && !isLagging();
+		}
+		
+		// finish the game
+		public void finish(int winner) {			
+			sendRanklist();
+			connection.send(header(InformationServer.FINISH, winner));
+		}
+		
+		// start the game
+		public void startGame() {
+			connection.send(header(InformationServer.START));
+			game.startDriver(player);
+		}
+		
+		// send a text message
+		public void sendMessage(String username, String time, String message) {
+			connection.send(header(InformationServer.MESSAGE), string(username), string(time), string(message));
+		}		
+		
+		// notify the client to enter the game, with the usernames of all the players (its own first)
+		public void enterGame(String[] usernames) {
+			ByteBuffer[] buffers = new ByteBuffer[1 + usernames.length];
+			buffers[0] = header(InformationServer.ENTER, usernames.length);
+			for (int i = 0; i < usernames.length; ++i)
+				buffers[1 + i] = string(usernames[i]);
+			connection.send(buffers);
+			sendMessage(
+				"System", Time.getTime(), 
+				"Game information:\n" + 
+				"Room: " + id + "; Level: " + server.getLevel() + "; Speed: " + server.getSpeed() + "/10"
+			);
+		}
+		
+		// notify the client to show countdown
+		public void sendCountdown(int countdown) {
+			connection.send(header(InformationServer.COUNTDOWN, countdown));
+		}		
+		
+		// the client is disconnected
+		public void disconnect(Connection connection, IOException e) {
+			if (disconnected) return;
+			disconnected = true;
+			if (!closed)
+				display(
+					"Player " + (player + 1) + 
+					" (username: " + username[player] + ") has disconnected from the game");
+			playerLeft(player);
+		}
+		
+		// send a signal to the client
+		public void sendSignal(InformationServer info) {
+			connection.send(header(info));
+		}
+		
+		// send the ranklist to the client
+		public void sendRanklist() {
+			byte[] packed;
+			Ranklist ranklist = server.getRanklist();
+			synchronized (ranklist) {
+				packed = ranklist.pack();
+			}
+			connection.send(header(InformationServer.RANKLIST), ByteBuffer.wrap(packed));
+		}
+
+		// turn the snake
+		private void turn(int player, boolean isRight) {
+			if (!game.isAlive(player)) return;
+			game.turn(player, isRight);
+		}
+		
+		// receive a text message
+		private void receiveMessage(String time, String message) {
+			for (int i = 0; i < numPlayersJoined; ++i)
+				socketHandler[i].sendMessage(username[player], time, message);
+		}
+		
+		// consume the whole messages received (the username first, then messages starting with their 
+		// type), leaving a message cut short for when the rest of it has arrived
+		public void receive(Connection connection, ByteBuffer input) {
+			while (input.hasRemaining()) {
+				input.mark();
+				try {
+					receive(input);
+				} catch (BufferUnderflowException e) {
+					input.reset();
+					return;
+				}
+			}
+		}
+		
+		// read a whole message before handling it
+		private void receive(ByteBuffer input) {
+			if (!named) {
+				username[player] = readString(input, MAX_USERNAME_LENGTH);
+				named = true;
+				if (game != null)
+					connected();
+				return;
+			}
+			int type = input.getInt();
+			// turn the snake
+			if (type == InformationClient.TURN.ordinal()) {
+				boolean isRight = input.getInt() > 0;
+				if (!prepared || finished || game.isPaused()) return;
+				turn(player, isRight);
+			}
+			// text message
+			else if (type == InformationClient.MESSAGE.ordinal()) {
+				String time = readString(input, MAX_STRING_LENGTH);
+				String message = readString(input, MAX_STRING_LENGTH);
+				if (!prepared) return;
+				receiveMessage(time, message);
+			} 
+			// the client is ready for the game
+			else if (type == InformationClient.PREPARED.ordinal()) {
+				if (prepared) return;
+				prepared = true;
+				playerPrepared();
+			}
+			// pause the game
+			else if (type == InformationClient.PAUSE.ordinal()) {
+				if (prepared) 
+					requestPause();
+			}
+			// resume the game
+			else if (type == InformationClient.RESUME.ordinal()) {
+				if (prepared)
+					requestResume();
+			}
+			// the rest of the stream cannot be parsed (the connection is dropped by the loop)
+			else
+				throw new IllegalArgumentException("Unknown message type: " + type);
+		}
+		
+		// the player asks to pause the game
+		private void requestPause() {
+			if (game.isPaused()) return;
+			// already requested
+			if (requestedPauseResume[player]) {
+				sendMessage("System", Time.getTime(), "You have already sent a pause request before.");
+				return;
+			}
+			requestedPauseResume[player] = true;
+			// all the other players have also requested
+			if (allRequestedPauseResume()) {
+				clearPauseResumeRequests();
+				game.pause();							
+				for (int i = 0; i < numPlayers; ++i)
+					socketHandler[i].sendSignal(InformationServer.PAUSE);
+				broadcast("All players agreed to pause the game.");
+			}
+			// ask for the other players' confirmation
+			else { 
+				broadcastExcept(player, 
+					username[player] + " has sent you a pause request. If you would like to accept it, "
+					+ "please click the pause button in 10 seconds.");
+				sendMessage("System", Time.getTime(), "Pause request sent.");
+				pauseResumeRequestTimeoutTask = new RoomTask() {
+					void runInRoom() {
+						requestedPauseResume[player] = false;
+						sendMessage("System", Time.getTime(), "Pause request expired.");
+						broadcastExcept(player, username[player] + "'s pause request has expired.");
+					}
+				};
+				TimingWheel.shared.schedule(pauseResumeRequestTimeoutTask, pauseResumeRequestTimeoutDelay);
+			}
+		}
+		
+		// the player asks to resume the game
+		private void requestResume() {
+			if (!game.isPaused()) return;
+			// already requested
+			if (requestedPauseResume[player]) {
+				sendMessage("System", Time.getTime(), "You have already sent a resuming request before.");
+				return;
+			}
+			requestedPauseResume[player] = true;
+			// all the other players have also requested
+			if (allRequestedPauseResume()) { 
+				clearPauseResumeRequests();
+				broadcast("All players agreed to resume the game.");
+				countdown(new Runnable() {
+					public void run() {
+						for (int i = 0; i < numPlayers; ++i)
+							socketHandler[i].sendSignal(InformationServer.RESUME);
+						game.resume();
+					}
+				});
+			}
+			// ask for the other players' confirmation
+			else { 
+				broadcastExcept(player, 
+					username[player] + " has sent you a resuming request. If you would like to accept it, "
+					+ "please click the resuming button in 10 seconds.");
+				sendMessage("System", Time.getTime(), "Resuming request sent.");
+				pauseResumeRequestTimeoutTask = new RoomTask() {
+					void runInRoom() {
+						requestedPauseResume[player] = false;
+						sendMessage("System", Time.getTime(), "Resuming request expired.");
+						broadcastExcept(player, username[player] + "'s resuming request has expired.");
+					}
+				};
+				TimingWheel.shared.schedule(pauseResumeRequestTimeoutTask, pauseResumeRequestTimeoutDelay);
+			}
+		}
+	}
+}
@@ -57,7 +57,7 @@ public class ServerUI extends JFrame {
 	// close
 	private void close() {
 		_this.setVisible(false);
-		server.close();
+		server.exit();
 		parent.setVisible(true);		
 	}
 	
@@ -102,7 +102,7 @@ public class ServerUI extends JFrame {
 	public void display(String message) {
 		message = "[" + Time.getTime() + "]: " + message;
 		synchronized (panel.textAreaStatus) {
-			panel.textAreaStatus.setText(panel.textAreaStatus.getText() + message + "\n");
+			panel.textAreaStatus.append(message + "\n");
 		}
 	}
 }
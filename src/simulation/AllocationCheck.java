@@ -0,0 +1,109 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package simulation;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import game.Game;
+import game.GameSettings;
+import game.Snake;
+
+// checks that a steady tick (no death, revival or new foods) of Game.step() allocates nothing, 
+// using the allocation counter of the current thread that HotSpot provides
+public class AllocationCheck {
+	private com.sun.management.ThreadMXBean threads;
+	private GameSettings settings;
+	private String[] policies;
+	private long maxTicks;
+	private long seed;
+	// bytes allocated during the steady ticks of the games measured, and the ticks that allocated
+	public long steadyTicks = 0;
+	public long steadyAllocatedBytes = 0;
+	public long steadyAllocatingTicks = 0;
+	
+	public AllocationCheck(com.sun.management.ThreadMXBean threads, GameSettings settings, String[] policies, 
+			long maxTicks, long seed) {
+		this.threads = threads;
+		this.settings = settings;
+		this.policies = policies;
+		this.maxTicks = maxTicks;
+		this.seed = seed;
+	}
+	
+	// play a game, measuring its steady ticks unless it is only played to warm up the JIT
+	public void play(int index, boolean measured) {
+		Game game = new Game(settings, (seed + index) * 0x9E3779B97F4A7C15L);
+		int numPlayers = game.getNumPlayers();
+		Policy[] players = new Policy[numPlayers];
+		for (int i = 0; i < numPlayers; ++i) 
+			players[i] = BatchSimulator.createPolicy(policies[i % policies.length], seed + (long) numPlayers * index + i);
+		game.start();
+		int[] turns = new int[numPlayers];
+		boolean[] alive = new boolean[numPlayers];
+		Snake[] snakes = new Snake[numPlayers];
+		while (!game.isFinished() && game.getTicks() < maxTicks) {
+			for (int i = 0; i < numPlayers; ++i) {
+				alive[i] = game.isAlive(i);
+				snakes[i] = game.snakes[i];
+				turns[i] = players[i].turn(game, i);
+			}
+			int numFoods = game.foods.size();
+			long allocated = threads.getCurrentThreadAllocatedBytes();
+			game.step(turns);
+			allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+			boolean steady = game.foods.size() <= numFoods;
+			for (int i = 0; i < numPlayers; ++i)
+				if (alive[i] != game.isAlive(i) || snakes[i] != game.snakes[i])
+					steady = false;
+			if (!measured || !steady) continue;
+			steadyTicks++;
+			steadyAllocatedBytes += allocated;
+			if (allocated > 0) 
+				steadyAllocatingTicks++;
+		}
+	}
+	
+	// usage: AllocationCheck [games] [warm-up games] [level] [players] [size] [seed]
+	// (exits with status 1 if a steady tick has allocated)
+	public static void main(String[] args) {
+		int numGames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+		int numWarmUpGames = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+		GameSettings settings = new GameSettings();
+		if (args.length > 2) settings.level = Integer.parseInt(args[2]);
+		if (args.length > 3) settings.numPlayers = Integer.parseInt(args[3]);
+		if (args.length > 4) settings.size = Integer.parseInt(args[4]);
+		long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+		
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean) || 
+				!((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+			System.out.println("The allocation counter is not supported by this JVM.");
+			System.exit(2);
+		}
+		AllocationCheck check = new AllocationCheck((com.sun.management.ThreadMXBean) threads, settings, 
+			new String[] {"greedy", "random"}, 100000, seed);
+		for (int i = 0; i < numWarmUpGames; ++i)
+			check.play(numGames + i, false);
+		for (int i = 0; i < numGames; ++i)
+			check.play(i, true);
+		
+		System.out.println(check.steadyAllocatedBytes + " bytes allocated in " + check.steadyAllocatingTicks + 
+			" of " + check.steadyTicks + " steady ticks");
+		if (check.steadyAllocatedBytes > 0)
+			System.exit(1);
+	}
+}
@@ -0,0 +1,134 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package simulation;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import game.Game;
+import game.GameSettings;
+
+// runs many independent headless games in parallel and aggregates their results
+public class BatchSimulator {
+	// number of games played sequentially by one fork/join leaf task
+	private static final int GAMES_PER_TASK = 8;
+	
+	private GameSettings settings;
+	private String[] policies;
+	private long maxTicks;
+	private long seed;
+	
+	// settings are only read (every game copies what it needs), so they must not change during a run
+	public BatchSimulator(GameSettings settings, String[] policies, long maxTicks, long seed) {
+		this.settings = settings;
+		this.policies = policies;
+		this.maxTicks = maxTicks;
+		this.seed = seed;
+	}
+	
+	// create a policy by its name
+	public static Policy createPolicy(String name, long seed) {
+		if (name.equals("random"))
+			return new RandomPolicy(seed, 0.2);
+		else if (name.equals("greedy"))
+			return new GreedyPolicy();
+		throw new IllegalArgumentException("Unknown policy: " + name);
+	}
+	
+	// play some games on a fork/join pool
+	public SimulationStats run(int numGames, int parallelism) {
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			return pool.invoke(new Batch(0, numGames));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	// play a single game and record it (players use the given policies in turn)
+	private void play(int index, SimulationStats stats) {
+		// games are reproducible from the seed of the simulator and their index
+		Game game = new Game(settings, (seed + index) * 0x9E3779B97F4A7C15L);
+		int numPlayers = game.getNumPlayers();
+		Policy[] players = new Policy[numPlayers];
+		for (int i = 0; i < numPlayers; ++i) 
+			players[i] = createPolicy(policies[i % policies.length], seed + (long) numPlayers * index + i);
+		game.start();
+		int[] turns = new int[numPlayers];
+		boolean[] alive = new boolean[numPlayers];
+		while (!game.isFinished() && game.getTicks() < maxTicks) {
+			for (int i = 0; i < numPlayers; ++i) {
+				alive[i] = game.isAlive(i);
+				turns[i] = players[i].turn(game, i);
+			}
+			game.step(turns);
+			for (int i = 0; i < numPlayers; ++i) 
+				if (alive[i] && !game.isAlive(i))
+					stats.addDeath(game.deathCause[i]);
+		}
+		stats.add(game);
+	}
+	
+	// games [from, to) split recursively among the workers
+	class Batch extends RecursiveTask<SimulationStats> {
+		private static final long serialVersionUID = 1L;
+		private int from, to;
+		
+		public Batch(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected SimulationStats compute() {
+			if (to - from <= GAMES_PER_TASK) {
+				SimulationStats stats = new SimulationStats(settings.numPlayers);
+				for (int i = from; i < to; ++i)
+					play(i, stats);
+				return stats;
+			}
+			int mid = (from + to) >>> 1;
+			Batch left = new Batch(from, mid);
+			left.fork();
+			SimulationStats right = new Batch(mid, to).compute();
+			return right.merge(left.join());
+		}
+	}
+	
+	// usage: BatchSimulator [games] [level] [lives] [policy of player 1] [policy of player 2] [threads] [players] [size] [seed]
+	public static void main(String[] args) {
+		int numGames = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		GameSettings settings = new GameSettings();
+		if (args.length > 1) settings.level = Integer.parseInt(args[1]);
+		if (args.length > 2) settings.numSnakes = Integer.parseInt(args[2]);
+		String[] policies = {
+			args.length > 3 ? args[3] : "greedy",
+			args.length > 4 ? args[4] : "random"
+		};
+		int threads = args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors();
+		if (args.length > 6) settings.numPlayers = Integer.parseInt(args[6]);
+		if (args.length > 7) settings.size = Integer.parseInt(args[7]);
+		
+		long seed = args.length > 8 ? Long.parseLong(args[8]) : System.nanoTime();
+		
+		BatchSimulator simulator = new BatchSimulator(settings, policies, 100000, seed);
+		long startTime = System.nanoTime();
+		SimulationStats stats = simulator.run(numGames, threads);
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		System.out.print(stats);
+		System.out.println(String.format("%.2f s on %d threads, %.0f games/s, %.0f ticks/s", 
+			seconds, threads, stats.games / seconds, stats.totalTicks / seconds));
+	}
+}
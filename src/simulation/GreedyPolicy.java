@@ -0,0 +1,59 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package simulation;
+
+import game.Direction;
+import game.Game;
+import game.Point;
+import game.Snake;
+
+// scripted policy moving towards the nearest food while avoiding the cells that kill immediately
+public class GreedyPolicy implements Policy {
+	private static final int[] TURNS = {Game.TURN_NONE, Game.TURN_LEFT, Game.TURN_RIGHT};
+	
+	public int turn(Game game, int player) {
+		Snake snake = game.snakes[player];
+		if (!snake.alive || snake.first > 0) 
+			return Game.TURN_NONE;
+		int headX = snake.getX(snake.first), headY = snake.getY(snake.first);
+		int best = Game.TURN_NONE;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int turn : TURNS) {
+			int d = (snake.direction + turn + 4) % 4;
+			int x = headX + Direction.dx[d];
+			int y = headY + Direction.dy[d];
+			if (!isSafe(game, x, y)) continue;
+			int distance = Integer.MAX_VALUE - 1;
+			for (int i = 0; i < game.foods.size(); ++i) {
+				Point food = game.foods.get(i);
+				distance = Math.min(distance, Math.abs(food.x - x) + Math.abs(food.y - y));
+			}
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = turn;
+			}
+		}
+		return best;
+	}
+	
+	// whether moving into some cell does not kill the snake
+	private boolean isSafe(Game game, int x, int y) {
+		if (!game.grid.contains(x, y)) return false;
+		int status = game.grid.get(x, y);
+		return status == Game.EMPTY || status == Game.FOOD || status == Game.HOLE;
+	}
+}
@@ -0,0 +1,37 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package simulation;
+import java.util.Random;
+
+import game.Game;
+
+// policy turning at random
+public class RandomPolicy implements Policy {
+	private Random random;
+	private double turnProbability;
+	
+	public RandomPolicy(long seed, double turnProbability) {
+		random = new Random(seed);
+		this.turnProbability = turnProbability;
+	}
+	
+	public int turn(Game game, int player) {
+		if (random.nextDouble() >= turnProbability)
+			return Game.TURN_NONE;
+		return random.nextBoolean() ? Game.TURN_RIGHT : Game.TURN_LEFT;
+	}
+}
@@ -0,0 +1,92 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package simulation;
+
+import game.Game;
+
+// aggregated results of simulated games (each worker fills its own instance, merged at the end)
+public class SimulationStats {
+	public static final int MAX_SCORE = 50;
+	
+	public long games = 0;
+	public long unfinished = 0; // stopped at the tick limit
+	public long[] wins;
+	public long totalTicks = 0;
+	public long minTicks = Long.MAX_VALUE;
+	public long maxTicks = 0;
+	public long[] scores = new long[MAX_SCORE + 1]; // scores of all players, the last bucket for >= MAX_SCORE
+	public long[] deaths = new long[3]; // indexed by Game.DEATH_*
+	
+	public SimulationStats(int numPlayers) {
+		wins = new long[numPlayers];
+	}
+	
+	// record a game that has stopped
+	public void add(Game game) {
+		games++;
+		if (game.isFinished())
+			wins[game.getWinner()]++;
+		else
+			unfinished++;
+		long ticks = game.getTicks();
+		totalTicks += ticks;
+		minTicks = Math.min(minTicks, ticks);
+		maxTicks = Math.max(maxTicks, ticks);
+		for (int i = 0; i < game.getNumPlayers(); ++i) 
+			scores[Math.min(game.score[i], MAX_SCORE)]++;
+	}
+	
+	// record a death
+	public void addDeath(int cause) {
+		deaths[cause]++;
+	}
+	
+	// merge the results of another batch
+	public SimulationStats merge(SimulationStats stats) {
+		games += stats.games;
+		unfinished += stats.unfinished;
+		for (int i = 0; i < wins.length; ++i)
+			wins[i] += stats.wins[i];
+		totalTicks += stats.totalTicks;
+		minTicks = Math.min(minTicks, stats.minTicks);
+		maxTicks = Math.max(maxTicks, stats.maxTicks);
+		for (int i = 0; i <= MAX_SCORE; ++i)
+			scores[i] += stats.scores[i];
+		for (int i = 0; i < deaths.length; ++i)
+			deaths[i] += stats.deaths[i];
+		return this;
+	}
+	
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Games: " + games + " (" + unfinished + " stopped at the tick limit)\n");
+		builder.append("Wins:");
+		for (int i = 0; i < wins.length; ++i)
+			builder.append((i > 0 ? " /" : "") + " " + wins[i]);
+		builder.append("\n");
+		if (games > 0)
+			builder.append("Game length (ticks): min " + minTicks + ", average " + 
+				totalTicks / games + ", max " + maxTicks + "\n");
+		builder.append("Deaths: wall " + deaths[Game.DEATH_WALL] + ", self " + deaths[Game.DEATH_SELF] + 
+			", opponent " + deaths[Game.DEATH_OPPONENT] + "\n");
+		builder.append("Score distribution:\n");
+		for (int i = 0; i <= MAX_SCORE; ++i)
+			if (scores[i] > 0)
+				builder.append("  " + (i == MAX_SCORE ? ">=" : "") + i + ": " + scores[i] + "\n");
+		return builder.toString();
+	}
+}
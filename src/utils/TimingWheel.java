@@ -0,0 +1,249 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package utils;
+import java.util.concurrent.locks.LockSupport;
+
+// hierarchical timing wheel: tasks are kept in lists by the millisecond tick they are due at, 
+// in slots of 64 ticks at the lowest level and 64 times coarser at each level above, so that 
+// scheduling and cancelling a task take constant time and a single thread runs all the tasks
+public class TimingWheel {
+	private static final int SLOT_BITS = 6;
+	private static final int NUM_SLOTS = 1 << SLOT_BITS;
+	private static final int NUM_LEVELS = 4;
+	// a late periodic task runs at most this many periods back to back before giving up on the lost time
+	private static final int MAX_CATCH_UP_PERIODS = 5;
+	
+	// the wheel shared by all the games and servers of the process
+	public static final TimingWheel shared = new TimingWheel("TimingWheel");
+	
+	private String name;
+	// head of the (circular) list of each slot
+	private WheelTask[][] slots = new WheelTask[NUM_LEVELS][NUM_SLOTS];
+	private long origin = System.nanoTime();
+	// last tick whose tasks have been run
+	private long tick = 0;
+	private int numTasks = 0;
+	private Thread thread;
+	// task being run by the thread
+	private WheelTask running;
+	
+	public TimingWheel(String name) {
+		this.name = name;
+		for (int level = 0; level < NUM_LEVELS; ++level)
+			for (int slot = 0; slot < NUM_SLOTS; ++slot) {
+				WheelTask head = new WheelTask() {
+					public void run() {}
+				};
+				head.prev = head.next = head;
+				slots[level][slot] = head;
+			}
+	}
+	
+	// run a task once after some delay
+	public void schedule(WheelTask task, long delayMillis) {
+		schedule(task, delayMillis, 0);
+	}
+	
+	// run a task periodically, the first time after some delay (when late, it is run again at once 
+	// to catch up, like java.util.Timer.scheduleAtFixedRate)
+	public void scheduleAtFixedRate(WheelTask task, long delayMillis, long periodMillis) {
+		if (periodMillis <= 0)
+			throw new IllegalArgumentException("Non-positive period.");
+		schedule(task, delayMillis, periodMillis);
+	}
+	
+	private void schedule(WheelTask task, long delayMillis, long periodMillis) {
+		if (delayMillis < 0)
+			throw new IllegalArgumentException("Negative delay.");
+		synchronized (this) {
+			// a task may schedule itself again while it is being run
+			boolean again = task == running && task.wheel == this && task.prev == null;
+			if (task.wheel != null && !again)
+				throw new IllegalStateException("Task already scheduled.");
+			task.wheel = this;
+			task.deadline = now() + delayMillis;
+			task.period = periodMillis;
+			place(task);
+			if (!again)
+				numTasks++;
+			if (thread == null) {
+				thread = new Thread(name) {
+					public void run() {
+						loop();
+					}
+				};
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		// the task may be due before the time the thread is waiting for
+		LockSupport.unpark(thread);
+	}
+	
+	// remove a task from the wheel
+	synchronized boolean cancel(WheelTask task) {
+		if (task.wheel != this)
+			return false;
+		if (task.prev != null) {
+			task.prev.next = task.next;
+			task.next.prev = task.prev;
+			task.prev = task.next = null;
+		}
+		task.wheel = null;
+		numTasks--;
+		return true;
+	}
+	
+	// number of scheduled tasks
+	public synchronized int size() {
+		return numTasks;
+	}
+	
+	// current tick
+	private long now() {
+		return (System.nanoTime() - origin) / 1000000;
+	}
+	
+	// put a task in the slot it is due at, on the finest level whose slots cover both its deadline 
+	// and the next tick (a task due beyond the range of the top level is first put at the end of 
+	// the range, and placed again from there)
+	private void place(WheelTask task) {
+		long current = tick + 1;
+		long due = Math.max(task.deadline, current);
+		int level = 0;
+		while (level < NUM_LEVELS && due >> (SLOT_BITS * (level + 1)) != current >> (SLOT_BITS * (level + 1)))
+			level++;
+		if (level == NUM_LEVELS) {
+			level = NUM_LEVELS - 1;
+			due = (current | ((1L << (SLOT_BITS * NUM_LEVELS)) - 1));
+		}
+		WheelTask head = slots[level][(int) (due >> (SLOT_BITS * level)) & (NUM_SLOTS - 1)];
+		task.prev = head.prev;
+		task.next = head;
+		head.prev.next = task;
+		head.prev = task;
+	}
+	
+	// move the tasks of the slots starting at the tick down to the finer levels
+	private void cascade() {
+		for (int level = NUM_LEVELS - 1; level > 0; --level) {
+			if ((tick & ((1L << (SLOT_BITS * level)) - 1)) != 0)
+				continue;
+			WheelTask head = slots[level][(int) (tick >> (SLOT_BITS * level)) & (NUM_SLOTS - 1)];
+			WheelTask task = head.next;
+			head.prev = head.next = head;
+			// placed as if the tick had not been reached yet, so that tasks due now go to its slot
+			tick--;
+			while (task != head) {
+				WheelTask next = task.next;
+				place(task);
+				task = next;
+			}
+			tick++;
+		}
+	}
+	
+	// take the tasks due at the tick out of their slot, chained by nextDue
+	private WheelTask takeDue() {
+		WheelTask head = slots[0][(int) tick & (NUM_SLOTS - 1)];
+		WheelTask task = head.next, first = null, last = null;
+		head.prev = head.next = head;
+		while (task != head) {
+			WheelTask next = task.next;
+			if (task.deadline > tick) {
+				// only parked at the end of the range of the wheel
+				place(task);
+			}
+			else {
+				task.prev = task.next = task.nextDue = null;
+				if (first == null)
+					first = task;
+				else
+					last.nextDue = task;
+				last = task;
+			}
+			task = next;
+		}
+		return first;
+	}
+	
+	// the next tick to wake up at (where a task is due or slots have to be cascaded), or -1 if 
+	// there are no tasks
+	private long nextWakeup() {
+		if (numTasks == 0)
+			return -1;
+		for (long t = tick + 1; ; ++t)
+			if (slots[0][(int) t & (NUM_SLOTS - 1)].next != slots[0][(int) t & (NUM_SLOTS - 1)] 
+				|| (t & (NUM_SLOTS - 1)) == 0)
+				return t;
+	}
+	
+	// advance tick by tick, running the due tasks outside of the lock (tasks lock their games, 
+	// which may be scheduling tasks at the same time)
+	private void loop() {
+		while (true) {
+			WheelTask due = null;
+			long wakeup = 0;
+			synchronized (this) {
+				if (tick < now()) {
+					tick++;
+					cascade();
+					due = takeDue();
+				}
+				else
+					wakeup = nextWakeup();
+			}
+			if (due == null) {
+				if (wakeup < 0)
+					LockSupport.park(this);
+				else if (wakeup > 0)
+					LockSupport.parkNanos(this, origin + wakeup * 1000000 - System.nanoTime());
+				continue;
+			}
+			
+			for (WheelTask task = due; task != null; task = task.nextDue) {
+				// skip the tasks cancelled or scheduled again in the meantime (also by their own run())
+				synchronized (this) {
+					if (task.wheel != this || task.prev != null)
+						continue;
+					running = task;
+				}
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+				synchronized (this) {
+					running = null;
+					if (task.wheel != this || task.prev != null)
+						continue;
+					if (task.period > 0) {
+						task.deadline += task.period;
+						long now = now();
+						if (now - task.deadline > MAX_CATCH_UP_PERIODS * task.period)
+							task.deadline = now + task.period;
+						place(task);
+					}
+					else {
+						task.wheel = null;
+						numTasks--;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/***********************************************************************
+    Snake
+    
+    Copyright (c) 2018 Zhouxing Shi <zhouxingshichn@gmail.com>
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+**********************************************************************/ 
+
+package utils;
+
+// task run by a timing wheel, once or periodically
+public abstract class WheelTask implements Runnable {
+	// wheel the task is scheduled on (null when it is not scheduled)
+	TimingWheel wheel;
+	// tick (in milliseconds from the start of the wheel) the task is due at, and period (0 if it 
+	// runs once)
+	long deadline, period;
+	// neighbours in the list of its slot (null while it is waiting to be run)
+	WheelTask prev, next;
+	// next task due at the same tick
+	WheelTask nextDue;
+	
+	// cancel the task, which will not run any more (it may be running right now); return whether 
+	// it was scheduled
+	public boolean cancel() {
+		TimingWheel wheel = this.wheel;
+		return wheel != null && wheel.cancel(this);
+	}
+}